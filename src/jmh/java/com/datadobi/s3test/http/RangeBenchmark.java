@@ -0,0 +1,68 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RangeBenchmark {
+    @Param({"bytes=0-1023", "bytes=-500", "bytes=0-0,100-199,1000-"})
+    public String range;
+
+    public String contentRange;
+    private Range parsed;
+
+    @Setup
+    public void setUp() {
+        parsed = Range.parseRange(range);
+        contentRange = "bytes 0-1023/1048576";
+    }
+
+    @Benchmark
+    public Range parseRange() {
+        return Range.parseRange(range);
+    }
+
+    @Benchmark
+    public String rangeToString() {
+        return parsed.toString();
+    }
+
+    @Benchmark
+    public ContentRange parseContentRange() {
+        return ContentRange.parseRange(contentRange);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class S3ErrorBenchmark {
+    private final AwsServiceException noSuchKey = S3Exception.builder()
+            .statusCode(404)
+            .awsErrorDetails(AwsErrorDetails.builder().errorCode("NoSuchKey").build())
+            .build();
+    private final AwsServiceException unknown = S3Exception.builder()
+            .statusCode(500)
+            .awsErrorDetails(AwsErrorDetails.builder().errorCode("VendorSpecificError").build())
+            .build();
+
+    @Benchmark
+    public S3Error findKnownError() {
+        return S3Error.findError(noSuchKey);
+    }
+
+    @Benchmark
+    public S3Error findUnknownError() {
+        return S3Error.findError(unknown);
+    }
+
+    @Benchmark
+    public S3Error findErrorByCode() {
+        return S3Error.findError("PreconditionFailed");
+    }
+}
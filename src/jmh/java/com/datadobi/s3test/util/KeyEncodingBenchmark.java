@@ -0,0 +1,68 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The key encoding path used by {@code ObjectKeyTests} to send keys that bypass client-side validation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyEncodingBenchmark {
+    private final byte[] prefix = "some/directory/with-invalid-utf8-".getBytes(UTF_8);
+    private final byte[] suffix = ".key".getBytes(UTF_8);
+    private final byte[] invalid = InvalidUtf8Encoder.utf8Encode(0xD800, 3);
+
+    @Benchmark
+    public String urlEncode() {
+        return KeyEncoding.urlEncode(prefix, invalid, suffix);
+    }
+
+    @Benchmark
+    public void utf8EncodeShortest(Blackhole blackhole) {
+        for (int codePoint = 0; codePoint < 0x110000; codePoint += 0x101) {
+            blackhole.consume(InvalidUtf8Encoder.utf8Encode(codePoint));
+        }
+    }
+
+    @Benchmark
+    public void utf8EncodeOverlong(Blackhole blackhole) {
+        for (int codePoint = 0; codePoint < 0x110000; codePoint += 0x101) {
+            blackhole.consume(InvalidUtf8Encoder.utf8Encode(codePoint, 4));
+        }
+    }
+}
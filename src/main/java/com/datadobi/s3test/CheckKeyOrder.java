@@ -0,0 +1,88 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.Quirk;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import com.datadobi.s3test.util.KeyOrderChecker;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.nio.file.Path;
+
+/**
+ * Checks that the complete listing of an existing bucket is sorted, without holding the listing in memory.
+ */
+public class CheckKeyOrder {
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        String prefix = null;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-p", "--prefix" -> prefix = args[++i];
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: CheckKeyOrder [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH   Load additional configuration from PATH");
+            System.err.println("  -p --prefix PREFIX Only check keys starting with PREFIX");
+            System.exit(1);
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i]));
+
+        if (target.createBucket()) {
+            System.err.println("Bucket not specified in URI");
+            System.exit(1);
+        }
+
+        KeyOrderChecker checker = target.hasQuirk(Quirk.KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER)
+                ? KeyOrderChecker.utf16()
+                : KeyOrderChecker.utf8();
+
+        try (S3Client s3 = S3.createClient(target)) {
+            S3Bucket bucket = new S3Bucket(s3, target.bucket());
+            bucket.streamObjectKeys(prefix, null).forEach(key -> {
+                checker.accept(key);
+                if (checker.count() % 1_000_000 == 0) {
+                    System.out.println(checker.summary());
+                }
+            });
+        }
+
+        System.out.println(checker.summary());
+        if (!checker.isOrdered()) {
+            System.exit(2);
+        }
+    }
+}
@@ -19,33 +19,10 @@
 package com.datadobi.s3test;
 
 import com.datadobi.s3test.s3.S3;
-import com.datadobi.s3test.s3.S3TestBase;
-import com.datadobi.s3test.s3.ServiceDefinition;
-import org.apache.logging.log4j.Level;
-import org.apache.logging.log4j.core.LoggerContext;
-import org.apache.logging.log4j.core.config.Configuration;
-import org.apache.logging.log4j.core.config.Configurator;
-import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
-import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
-import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
-import org.junit.runner.Description;
-import org.junit.runner.JUnitCore;
-import org.junit.runner.manipulation.Filter;
-import org.junit.runner.manipulation.NoTestsRemainException;
-import org.junit.runner.notification.Failure;
-import org.junit.runner.notification.RunListener;
-import org.junit.runners.BlockJUnit4ClassRunner;
-import org.junit.runners.model.InitializationError;
+import com.datadobi.s3test.server.ServiceUris;
+import software.amazon.awssdk.services.s3.S3Client;
 
-import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Pattern;
 
 public class ClearBucket {
     public static void main(String[] args) throws IOException {
@@ -54,10 +31,12 @@ public class ClearBucket {
             System.exit(1);
         }
 
-        var target = ServiceDefinition.fromURI(args[0]);
+        var target = ServiceUris.fromURI(args[0]);
 
         if (!target.createBucket()) {
-            S3.deleteBucket(S3.createClient(target), target.bucket());
+            try (S3Client s3 = S3.createClient(target)) {
+                S3.deleteBucket(s3, target.bucket());
+            }
             System.out.println("Bucket deleted");
         } else {
             System.err.println("Bucket not specified in URI");
@@ -18,20 +18,32 @@
  */
 package com.datadobi.s3test;
 
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
 import com.datadobi.s3test.s3.S3TestBase;
 import com.datadobi.s3test.s3.SkipForQuirks;
 import org.junit.Test;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 import static com.datadobi.s3test.s3.Quirk.*;
 import static org.junit.Assert.*;
 
 public class ConditionalRequestTests extends S3TestBase {
+    private static final int CONCURRENT_WRITERS = 8;
+
     public ConditionalRequestTests() throws IOException {
     }
 
@@ -42,11 +54,11 @@ public class ConditionalRequestTests extends S3TestBase {
      */
     @Test
     @SkipForQuirks({PUT_OBJECT_IF_NONE_MATCH_STAR_NOT_SUPPORTED})
-    public void thatConditionalPutIfNoneMatchStarWorks() throws InterruptedException {
+    public void thatConditionalPutIfNoneMatchStarWorks() throws InterruptedException, TimeoutException {
         // Write an object
-        bucket.putObject("object", "hello");
+        var initialPutResponse = bucket.putObject("object", "hello");
 
-        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+        bucket.headObjectWithETag("object", initialPutResponse.eTag(), target.eventualConsistencyDelay());
 
         try {
             // Overwrite the object with `If-None-Match: *`.
@@ -70,11 +82,11 @@ public class ConditionalRequestTests extends S3TestBase {
      */
     @Test
     @SkipForQuirks({PUT_OBJECT_IF_NONE_MATCH_ETAG_NOT_SUPPORTED})
-    public void thatConditionalPutIfNoneMatchEtagWorks() throws IOException, InterruptedException {
+    public void thatConditionalPutIfNoneMatchEtagWorks() throws IOException, InterruptedException, TimeoutException {
         // Write an object
         var initialPutResponse = bucket.putObject("object", "hello");
 
-        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+        bucket.headObjectWithETag("object", initialPutResponse.eTag(), target.eventualConsistencyDelay());
 
         // Overwrite the object with `If-None-Match: <etag>` using a random etag value.
         // This should succeed since the etag does not match.
@@ -125,11 +137,11 @@ public class ConditionalRequestTests extends S3TestBase {
      */
     @Test
     @SkipForQuirks({PUT_OBJECT_IF_MATCH_ETAG_NOT_SUPPORTED})
-    public void thatConditionalPutIfMatchEtagWorks() throws IOException, InterruptedException {
+    public void thatConditionalPutIfMatchEtagWorks() throws IOException, InterruptedException, TimeoutException {
         // Write an object
         var initialPutResponse = bucket.putObject("object", "hello");
 
-        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+        bucket.headObjectWithETag("object", initialPutResponse.eTag(), target.eventualConsistencyDelay());
 
         // Overwrite the object with `If-Match: <etag>` using the current etag value.
         // This should succeed since the etag matches.
@@ -183,4 +195,79 @@ public class ConditionalRequestTests extends S3TestBase {
             assertEquals(String.format("HTTP error should be precondition failed (expected: %s, received: %s)", 412, actualStatusCode), 412, actualStatusCode);
         }
     }
+
+    /**
+     * Several writers concurrently put the same new key with If-None-Match: *.
+     * Expected: Exactly one put succeeds; the others fail with 412 (or 409 ConditionalRequestConflict); GET returns the
+     * winner's content.
+     */
+    @Test
+    @SkipForQuirks({PUT_OBJECT_IF_NONE_MATCH_STAR_NOT_SUPPORTED})
+    public void thatConcurrentConditionalPutIfNoneMatchStarHasSingleWinner() throws Exception {
+        var winners = race(writer -> b -> b.key("object").ifNoneMatch("*"));
+
+        assertEquals(String.format("Exactly one concurrent create should succeed (winners: %s)", winners), 1, winners.size());
+        var content = new String(bucket.getObjectContent("object"), StandardCharsets.UTF_8);
+        assertEquals("Object content should match the winning request", "writer-" + winners.getFirst(), content);
+    }
+
+    /**
+     * Several writers concurrently overwrite an object with If-Match: "<etag>" using the same current etag.
+     * Expected: Exactly one put succeeds; the others fail with 412 (or 409 ConditionalRequestConflict); GET returns the
+     * winner's content.
+     */
+    @Test
+    @SkipForQuirks({PUT_OBJECT_IF_MATCH_ETAG_NOT_SUPPORTED})
+    public void thatConcurrentConditionalPutIfMatchEtagHasSingleWinner() throws Exception {
+        var initialPutResponse = bucket.putObject("object", "hello");
+        bucket.headObjectWithETag("object", initialPutResponse.eTag(), target.eventualConsistencyDelay());
+
+        var winners = race(writer -> b -> b.key("object").ifMatch(initialPutResponse.eTag()));
+
+        assertEquals(String.format("Exactly one concurrent compare-and-swap should succeed (winners: %s)", winners), 1, winners.size());
+        var content = new String(bucket.getObjectContent("object"), StandardCharsets.UTF_8);
+        assertEquals("Object content should match the winning request", "writer-" + winners.getFirst(), content);
+    }
+
+    /**
+     * Starts {@link #CONCURRENT_WRITERS} conditional puts at the same time. Writer {@code i} writes "writer-i".
+     *
+     * @return the writers whose put succeeded
+     */
+    private List<Integer> race(IntFunction<Consumer<PutObjectRequest.Builder>> request) throws Exception {
+        // A retried put could fail its precondition because of its own first attempt
+        try (var client = S3.createClient(target, INTERCEPTORS, S3.createNoPutRetryPolicy())) {
+            var racingBucket = new S3Bucket(client, bucket.name());
+            var executor = Executors.newFixedThreadPool(CONCURRENT_WRITERS);
+            try {
+                var start = new CyclicBarrier(CONCURRENT_WRITERS);
+                var futures = new ArrayList<Future<Boolean>>();
+                for (int i = 0; i < CONCURRENT_WRITERS; i++) {
+                    var writer = i;
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            racingBucket.putObject(request.apply(writer), "writer-" + writer);
+                            return true;
+                        } catch (S3Exception e) {
+                            if (e.statusCode() == 412 || e.statusCode() == 409) {
+                                return false;
+                            }
+                            throw e;
+                        }
+                    }));
+                }
+
+                var winners = new ArrayList<Integer>();
+                for (int i = 0; i < futures.size(); i++) {
+                    if (futures.get(i).get()) {
+                        winners.add(i);
+                    }
+                }
+                return winners;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import com.datadobi.s3test.util.LatencyRecorder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Measures conditional writes under contention, as used by clients that build locks on top of them.
+ * <p>
+ * In each round, every writer races to create a fresh set of keys with {@code If-None-Match: *}, and then to update
+ * a fixed set of keys with {@code If-Match: <etag>} using the ETag all writers read at the start of the round. Exactly
+ * one writer must win each key in each round. A key with more than one winner, or with no winner although every
+ * writer was rejected with 412, is reported as a violation. A key without a winner on which some writer got a 409 or
+ * another error is reported as undecided, since the failed request might have won.
+ */
+public class ConditionalWriteBenchmark {
+    private enum Phase {
+        CREATE("If-None-Match: *"),
+        COMPARE_AND_SWAP("If-Match: <etag>"),
+        ;
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static class PhaseStats {
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final AtomicInteger wins = new AtomicInteger();
+        private final AtomicInteger preconditionFailed = new AtomicInteger();
+        private final AtomicInteger conflicts = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicInteger violations = new AtomicInteger();
+        private final AtomicInteger undecided = new AtomicInteger();
+        private final AtomicLong elapsedNanos = new AtomicLong();
+        private final ConcurrentHashMap<String, AtomicInteger> winnersPerKey = new ConcurrentHashMap<>();
+        private final Set<String> failedKeys = ConcurrentHashMap.newKeySet();
+
+        private void put(S3Bucket bucket, String key, Consumer<PutObjectRequest.Builder> request, String content) {
+            long start = System.nanoTime();
+            try {
+                bucket.putObject(request, content);
+                wins.incrementAndGet();
+                winnersPerKey.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            } catch (S3Exception e) {
+                if (e.statusCode() == 412) {
+                    preconditionFailed.incrementAndGet();
+                } else if (e.statusCode() == 409) {
+                    conflicts.incrementAndGet();
+                    failedKeys.add(key);
+                } else {
+                    errors.incrementAndGet();
+                    failedKeys.add(key);
+                }
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                failedKeys.add(key);
+            } finally {
+                latency.recordNanos(System.nanoTime() - start);
+            }
+        }
+
+        private void endRound(List<String> keys) {
+            for (String key : keys) {
+                AtomicInteger winners = winnersPerKey.remove(key);
+                boolean failed = failedKeys.remove(key);
+                int count = winners == null ? 0 : winners.get();
+                if (count > 1) {
+                    violations.incrementAndGet();
+                } else if (count == 0) {
+                    if (failed) {
+                        undecided.incrementAndGet();
+                    } else {
+                        violations.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        int writers = 8;
+        int keyCount = 4;
+        int rounds = 50;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-w", "--writers" -> writers = Integer.parseInt(args[++i]);
+                case "-k", "--keys" -> keyCount = Integer.parseInt(args[++i]);
+                case "-r", "--rounds" -> rounds = Integer.parseInt(args[++i]);
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: ConditionalWriteBenchmark [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH   Load additional configuration from PATH");
+            System.err.println("  -w --writers N     Number of concurrent writers (default 8)");
+            System.err.println("  -k --keys N        Number of keys contended in each round (default 4)");
+            System.err.println("  -r --rounds N      Number of rounds (default 50)");
+            System.exit(1);
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i]));
+
+        PhaseStats create = new PhaseStats();
+        PhaseStats compareAndSwap = new PhaseStats();
+
+        // Retried puts would fail their own precondition and distort the counts
+        try (S3Client s3 = S3.createClient(target, List.of(), S3.createNoPutRetryPolicy())) {
+            if (target.createBucket()) {
+                S3.createBucketAndWait(s3, target.bucket());
+            }
+            S3Bucket bucket = new S3Bucket(s3, target.bucket());
+
+            String run = UUID.randomUUID().toString();
+            List<String> casKeys = new ArrayList<>();
+            for (int k = 0; k < keyCount; k++) {
+                String key = "contention-" + run + "/cas/" + k;
+                bucket.putObject(key, "initial");
+                casKeys.add(key);
+            }
+
+            System.out.printf("Racing %d writers for %d keys in %d rounds against %s%n", writers, keyCount, rounds, target.host());
+
+            int roundCount = rounds;
+            ConcurrentHashMap<String, String> roundETags = new ConcurrentHashMap<>();
+            List<String> roundCreateKeys = new ArrayList<>();
+            CyclicBarrier barrier = new CyclicBarrier(writers);
+
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int w = 0; w < writers; w++) {
+                    int writer = w;
+                    futures.add(executor.submit(() -> {
+                        try {
+                            for (int round = 0; round < roundCount; round++) {
+                                // Writer 0 prepares the round while the others wait
+                                if (writer == 0) {
+                                    roundCreateKeys.clear();
+                                    for (int k = 0; k < casKeys.size(); k++) {
+                                        roundCreateKeys.add("contention-" + run + "/create/" + round + "/" + k);
+                                    }
+                                    roundETags.clear();
+                                    for (String key : casKeys) {
+                                        roundETags.put(key, bucket.headObject(key).eTag());
+                                    }
+                                }
+                                barrier.await();
+
+                                String content = "round-" + round + "-writer-" + writer;
+                                long start = System.nanoTime();
+                                for (String key : roundCreateKeys) {
+                                    create.put(bucket, key, r -> r.key(key).ifNoneMatch("*"), content);
+                                }
+                                barrier.await();
+                                if (writer == 0) {
+                                    create.elapsedNanos.addAndGet(System.nanoTime() - start);
+                                    create.endRound(roundCreateKeys);
+                                }
+                                barrier.await();
+
+                                start = System.nanoTime();
+                                for (String key : casKeys) {
+                                    compareAndSwap.put(bucket, key, r -> r.key(key).ifMatch(roundETags.get(key)), content);
+                                }
+                                barrier.await();
+                                if (writer == 0) {
+                                    compareAndSwap.elapsedNanos.addAndGet(System.nanoTime() - start);
+                                    compareAndSwap.endRound(casKeys);
+                                }
+                            }
+                        } catch (Exception e) {
+                            // Release the other writers waiting at the barrier
+                            barrier.reset();
+                            throw e;
+                        }
+                        return null;
+                    }));
+                }
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        System.err.println("Writer failed: " + e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+
+                S3.clearBucket(s3, target.bucket());
+                if (target.createBucket()) {
+                    S3.deleteBucket(s3, target.bucket());
+                }
+            }
+
+            System.out.println();
+            System.out.printf("%-18s %8s %10s %6s %6s %6s %6s %10s %9s  %s%n",
+                    "Phase", "Requests", "Req/s", "Wins", "412", "409", "Other", "Violations", "Undecided", "Latency");
+            report(Phase.CREATE, create);
+            report(Phase.COMPARE_AND_SWAP, compareAndSwap);
+        }
+    }
+
+    private static void report(Phase phase, PhaseStats stats) {
+        int requests = stats.latency.count();
+        double seconds = stats.elapsedNanos.get() / 1e9;
+        System.out.printf("%-18s %8d %10.1f %6d %6d %6d %6d %10d %9d  %s%n",
+                phase.label,
+                requests,
+                seconds == 0 ? 0 : requests / seconds,
+                stats.wins.get(),
+                stats.preconditionFailed.get(),
+                stats.conflicts.get(),
+                stats.errors.get(),
+                stats.violations.get(),
+                stats.undecided.get(),
+                stats.latency.summary());
+    }
+}
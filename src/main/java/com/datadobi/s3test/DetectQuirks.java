@@ -0,0 +1,489 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.Quirk;
+import com.datadobi.s3test.s3.RawS3Client;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import com.datadobi.s3test.util.InvalidUtf8Encoder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Determines which {@link Quirk}s apply to a target and writes them as a configuration file for {@code RunTests}.
+ * <p>
+ * Each probe performs the minimal requests needed to observe one or a few related quirks, under its own prefix of a
+ * single bucket. All probes run concurrently. Results are cached per endpoint, so repeated runs are instant until
+ * {@code --refresh} is given.
+ */
+public class DetectQuirks {
+    private static final Path DEFAULT_CACHE_PATH = Path.of(".s3test-cache");
+    private static final int MB = 1024 * 1024;
+    private static final int CLAPPING_HANDS = 0x1F44F;
+
+    /**
+     * Outcome of a probe for a single quirk.
+     *
+     * @param present  whether the target shows the quirk, {@code null} if it could not be determined
+     * @param evidence what was observed
+     */
+    private record Finding(Quirk quirk, @Nullable Boolean present, String evidence) {
+    }
+
+    private interface ProbeFunction {
+        List<Finding> run(String prefix) throws Exception;
+    }
+
+    private record Probe(String name, Set<Quirk> quirks, ProbeFunction function) {
+    }
+
+    private final ServiceDefinition target;
+    private final S3Client s3;
+    private final S3Bucket bucket;
+    private final RawS3Client raw;
+    private final String runPrefix = "detect-quirks-" + UUID.randomUUID() + "/";
+
+    private DetectQuirks(ServiceDefinition target, S3Client s3, RawS3Client raw) {
+        this.target = target;
+        this.s3 = s3;
+        this.bucket = new S3Bucket(s3, target.bucket());
+        this.raw = raw;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        Path outputPath = null;
+        Path cachePath = DEFAULT_CACHE_PATH;
+        boolean refresh = false;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-o", "--output" -> outputPath = Path.of(args[++i]);
+                case "--cache" -> cachePath = Path.of(args[++i]);
+                case "--refresh" -> refresh = true;
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: DetectQuirks [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH   Load additional configuration from PATH; its quirks are ignored");
+            System.err.println("  -o --output PATH   Write the detected configuration to PATH instead of stdout");
+            System.err.println("  --cache PATH       Cache detected configurations in PATH (default " + DEFAULT_CACHE_PATH + ")");
+            System.err.println("  --refresh          Probe the target even if a cached result exists");
+            System.exit(1);
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i])).toBuilder().quirks(Set.of()).build();
+
+        Path cacheFile = cachePath.resolve("quirks-" + sha256(target.endpoint().toString()).substring(0, 16) + ".toml");
+        String toml;
+        if (!refresh && Files.exists(cacheFile)) {
+            System.err.println("Using cached result " + cacheFile + ", pass --refresh to probe again");
+            toml = Files.readString(cacheFile);
+        } else {
+            List<Finding> findings = detect(target);
+            toml = toToml(target, findings);
+            Files.createDirectories(cachePath);
+            Files.writeString(cacheFile, toml);
+        }
+
+        if (outputPath != null) {
+            Files.writeString(outputPath, toml);
+        } else {
+            System.out.print(toml);
+        }
+    }
+
+    private static List<Finding> detect(ServiceDefinition target) throws IOException {
+        long start = System.nanoTime();
+        try (S3Client s3 = S3.createClient(target);
+             RawS3Client raw = new RawS3Client(target)) {
+            if (target.createBucket()) {
+                S3.createBucketAndWait(s3, target.bucket());
+            }
+
+            DetectQuirks detector = new DetectQuirks(target, s3, raw);
+            try {
+                List<Finding> findings = detector.runProbes();
+                System.err.printf("Probed %s in %.1fs%n", target.host(), (System.nanoTime() - start) / 1e9);
+                return findings;
+            } finally {
+                if (target.createBucket()) {
+                    S3.clearBucket(s3, target.bucket());
+                    S3.deleteBucket(s3, target.bucket());
+                } else {
+                    detector.deleteRunPrefix();
+                }
+            }
+        }
+    }
+
+    private List<Probe> probes() {
+        return List.of(
+                new Probe("checksums", EnumSet.of(Quirk.CHECKSUMS_NOT_SUPPORTED), this::probeChecksums),
+                new Probe("content-type", EnumSet.of(Quirk.CONTENT_TYPE_NOT_SET_FOR_KEYS_WITH_TRAILING_SLASH), this::probeContentType),
+                new Probe("copy-etag", EnumSet.of(Quirk.ETAG_EMPTY_AFTER_COPY_OBJECT), this::probeCopyETag),
+                new Probe("multipart", EnumSet.of(Quirk.GET_OBJECT_PART_NOT_SUPPORTED, Quirk.GET_OBJECT_PARTCOUNT_NOT_SUPPORTED, Quirk.MULTIPART_SIZES_NOT_KEPT), this::probeMultipart),
+                new Probe("sort-order", EnumSet.of(Quirk.KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER), this::probeSortOrder),
+                new Probe("codepoint-min", EnumSet.of(Quirk.KEYS_WITH_CODEPOINT_MIN_REJECTED), this::probeCodePointMin),
+                new Probe("outside-bmp", EnumSet.of(Quirk.KEYS_WITH_CODEPOINTS_OUTSIDE_BMP_REJECTED), this::probeOutsideBmp),
+                new Probe("invalid-utf8", EnumSet.of(Quirk.KEYS_WITH_INVALID_UTF8_NOT_REJECTED), this::probeInvalidUtf8),
+                new Probe("null-byte", EnumSet.of(Quirk.KEYS_WITH_NULL_NOT_REJECTED, Quirk.KEYS_WITH_NULL_ARE_TRUNCATED), this::probeNullByte),
+                new Probe("implicit-objects", EnumSet.of(Quirk.KEYS_WITH_SLASHES_CREATE_IMPLICIT_OBJECTS), this::probeImplicitObjects),
+                new Probe("if-match", EnumSet.of(Quirk.PUT_OBJECT_IF_MATCH_ETAG_NOT_SUPPORTED), this::probeIfMatch),
+                new Probe("if-none-match-etag", EnumSet.of(Quirk.PUT_OBJECT_IF_NONE_MATCH_ETAG_NOT_SUPPORTED), this::probeIfNoneMatchETag),
+                new Probe("if-none-match-star", EnumSet.of(Quirk.PUT_OBJECT_IF_NONE_MATCH_STAR_NOT_SUPPORTED), this::probeIfNoneMatchStar),
+                new Probe("storage-class", EnumSet.of(Quirk.STORAGE_CLASS_NOT_KEPT), this::probeStorageClass)
+        );
+    }
+
+    private List<Finding> runProbes() {
+        List<Probe> probes = probes();
+        Set<Quirk> unprobed = EnumSet.allOf(Quirk.class);
+        probes.forEach(probe -> unprobed.removeAll(probe.quirks()));
+
+        List<Finding> findings = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<Finding>>> futures = new ArrayList<>();
+            for (Probe probe : probes) {
+                futures.add(executor.submit(() -> probe.function().run(runPrefix + probe.name() + "/")));
+            }
+
+            for (int i = 0; i < probes.size(); i++) {
+                Probe probe = probes.get(i);
+                try {
+                    findings.addAll(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    String evidence = "probe " + probe.name() + " failed: " + cause.getClass().getSimpleName() + ": " + cause.getMessage();
+                    for (Quirk quirk : probe.quirks()) {
+                        findings.add(new Finding(quirk, null, evidence));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        for (Quirk quirk : unprobed) {
+            findings.add(new Finding(quirk, null, "no probe available"));
+        }
+        findings.sort(Comparator.comparing(Finding::quirk));
+        return findings;
+    }
+
+    private List<Finding> probeChecksums(String prefix) {
+        String key = prefix + "object";
+        PutObjectResponse put;
+        try {
+            put = bucket.putObject(r -> r.key(key).checksumAlgorithm(ChecksumAlgorithm.CRC32), "checksum");
+        } catch (S3Exception e) {
+            return List.of(new Finding(Quirk.CHECKSUMS_NOT_SUPPORTED, true, "PutObject with CRC32 failed with " + e.statusCode()));
+        }
+
+        HeadObjectResponse head = bucket.headObject(r -> r.key(key).checksumMode(ChecksumMode.ENABLED));
+        boolean kept = put.checksumCRC32() != null && put.checksumCRC32().equals(head.checksumCRC32());
+        return List.of(new Finding(Quirk.CHECKSUMS_NOT_SUPPORTED, !kept, "CRC32 on put " + put.checksumCRC32() + ", on head " + head.checksumCRC32()));
+    }
+
+    private List<Finding> probeContentType(String prefix) throws IOException {
+        String key = prefix + "directory/";
+        bucket.putObject(r -> r.key(key).contentType("text/empty"), new byte[0]);
+        try (var object = bucket.getObject(key)) {
+            String contentType = object.response().contentType();
+            return List.of(new Finding(Quirk.CONTENT_TYPE_NOT_SET_FOR_KEYS_WITH_TRAILING_SLASH, !"text/empty".equals(contentType), "Content-Type " + contentType));
+        }
+    }
+
+    private List<Finding> probeCopyETag(String prefix) {
+        String key = prefix + "object";
+        bucket.putObject(key, "body");
+        s3.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucket.name())
+                .sourceKey(key)
+                .destinationBucket(bucket.name())
+                .destinationKey(key)
+                .metadataDirective(MetadataDirective.REPLACE)
+                .metadata(Map.of("metakey", "metavalue"))
+                .build());
+
+        String listedETag = bucket.listObjectsV2(r -> r.prefix(prefix)).contents().getFirst().eTag();
+        return List.of(new Finding(Quirk.ETAG_EMPTY_AFTER_COPY_OBJECT, "\"\"".equals(listedETag), "listed ETag " + listedETag));
+    }
+
+    private List<Finding> probeMultipart(String prefix) {
+        String key = prefix + "object";
+        long[] partSizes = {5 * MB, MB};
+
+        CreateMultipartUploadResponse upload = bucket.createMultipartUpload(key);
+        List<CompletedPart> parts = new ArrayList<>();
+        for (int partNumber = 1; partNumber <= partSizes.length; partNumber++) {
+            byte[] content = new byte[(int) partSizes[partNumber - 1]];
+            int finalPartNumber = partNumber;
+            String eTag = bucket.uploadPart(r -> r.key(key)
+                    .uploadId(upload.uploadId())
+                    .partNumber(finalPartNumber)
+                    .contentLength((long) content.length), content).eTag();
+            parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+        }
+        bucket.completeMultipartUpload(r -> r.key(key)
+                .uploadId(upload.uploadId())
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()));
+
+        HeadObjectResponse head;
+        try {
+            head = bucket.headObject(r -> r.key(key).partNumber(1));
+        } catch (S3Exception e) {
+            String evidence = "HeadObject with partNumber failed with " + e.statusCode();
+            return List.of(
+                    new Finding(Quirk.GET_OBJECT_PART_NOT_SUPPORTED, true, evidence),
+                    new Finding(Quirk.GET_OBJECT_PARTCOUNT_NOT_SUPPORTED, false, "not applicable, " + evidence),
+                    new Finding(Quirk.MULTIPART_SIZES_NOT_KEPT, false, "not applicable, " + evidence)
+            );
+        }
+
+        Integer partsCount = head.partsCount();
+        boolean sizesKept = partsCount != null && partsCount == partSizes.length && head.contentLength() == partSizes[0];
+        return List.of(
+                new Finding(Quirk.GET_OBJECT_PART_NOT_SUPPORTED, false, "HeadObject with partNumber succeeded"),
+                new Finding(Quirk.GET_OBJECT_PARTCOUNT_NOT_SUPPORTED, partsCount == null, "x-amz-mp-parts-count " + partsCount),
+                new Finding(Quirk.MULTIPART_SIZES_NOT_KEPT, partsCount != null && !sizesKept, partsCount + " parts, first part " + head.contentLength() + " bytes")
+        );
+    }
+
+    private List<Finding> probeSortOrder(String prefix) {
+        // U+FB80 sorts before U+1F44F in UTF-8, but after its surrogate pair in UTF-16
+        String bmp = prefix + "\uFB80";
+        String supplementary = prefix + Character.toString(CLAPPING_HANDS);
+        bucket.putObject(bmp, "bmp");
+        bucket.putObject(supplementary, "supplementary");
+
+        List<String> keys = bucket.listObjectsV2(r -> r.prefix(prefix)).contents().stream().map(S3Object::key).toList();
+        if (keys.equals(List.of(bmp, supplementary))) {
+            return List.of(new Finding(Quirk.KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER, false, "listed in UTF-8 order"));
+        } else if (keys.equals(List.of(supplementary, bmp))) {
+            return List.of(new Finding(Quirk.KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER, true, "listed in UTF-16 order"));
+        } else {
+            return List.of(new Finding(Quirk.KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER, null, "unexpected listing of " + keys.size() + " keys"));
+        }
+    }
+
+    private List<Finding> probeCodePointMin(String prefix) throws IOException {
+        int status = putRaw(prefix, "\u0001".getBytes(StandardCharsets.UTF_8));
+        return List.of(new Finding(Quirk.KEYS_WITH_CODEPOINT_MIN_REJECTED, !isSuccess(status), "U+0001 returned " + status));
+    }
+
+    private List<Finding> probeOutsideBmp(String prefix) throws IOException {
+        int status = putRaw(prefix, InvalidUtf8Encoder.utf8Encode(CLAPPING_HANDS));
+        return List.of(new Finding(Quirk.KEYS_WITH_CODEPOINTS_OUTSIDE_BMP_REJECTED, !isSuccess(status), "U+1F44F returned " + status));
+    }
+
+    private List<Finding> probeInvalidUtf8(String prefix) throws IOException {
+        int surrogate = putRaw(prefix + "surrogate-", InvalidUtf8Encoder.utf8Encode(0xD83D));
+        int overlong = putRaw(prefix + "overlong-", InvalidUtf8Encoder.utf8Encode('a', 4));
+        return List.of(new Finding(
+                Quirk.KEYS_WITH_INVALID_UTF8_NOT_REJECTED,
+                isSuccess(surrogate) || isSuccess(overlong),
+                "encoded surrogate returned " + surrogate + ", overlong 'a' returned " + overlong
+        ));
+    }
+
+    private List<Finding> probeNullByte(String prefix) throws IOException {
+        int status = putRaw(prefix + "with-", new byte[]{0});
+        if (!isSuccess(status)) {
+            String evidence = "NUL returned " + status;
+            return List.of(
+                    new Finding(Quirk.KEYS_WITH_NULL_NOT_REJECTED, false, evidence),
+                    new Finding(Quirk.KEYS_WITH_NULL_ARE_TRUNCATED, false, "not applicable, " + evidence)
+            );
+        }
+
+        byte[] expected = concat((prefix + "with-").getBytes(StandardCharsets.UTF_8), new byte[]{0}, ".key".getBytes(StandardCharsets.UTF_8));
+        List<byte[]> listed = raw.listObjectKeys(bucket.name(), prefix.getBytes(StandardCharsets.UTF_8), null).keys();
+        boolean truncated = listed.size() == 1 && listed.getFirst().length < expected.length;
+        return List.of(
+                new Finding(Quirk.KEYS_WITH_NULL_NOT_REJECTED, true, "NUL returned " + status),
+                new Finding(Quirk.KEYS_WITH_NULL_ARE_TRUNCATED, truncated, listed.size() + " keys listed, first " + (listed.isEmpty() ? 0 : listed.getFirst().length) + " of " + expected.length + " bytes")
+        );
+    }
+
+    private List<Finding> probeImplicitObjects(String prefix) {
+        bucket.putObject(prefix + "a/b/c", "abcd");
+        List<String> keys = bucket.listObjectsV2(r -> r.prefix(prefix)).contents().stream().map(S3Object::key).toList();
+        return List.of(new Finding(Quirk.KEYS_WITH_SLASHES_CREATE_IMPLICIT_OBJECTS, keys.size() > 1, keys.size() + " keys listed for 1 object"));
+    }
+
+    private List<Finding> probeIfMatch(String prefix) throws Exception {
+        String key = prefix + "object";
+        PutObjectResponse initial = bucket.putObject(key, "hello");
+        bucket.headObjectWithETag(key, initial.eTag(), target.eventualConsistencyDelay());
+
+        // Only a server that evaluates If-Match rejects a stale ETag
+        String evidence = conditionalPut(key, b -> b.ifMatch("\"00000000000000000000000000000000\""));
+        return List.of(new Finding(Quirk.PUT_OBJECT_IF_MATCH_ETAG_NOT_SUPPORTED, !evidence.equals("412"), "If-Match with a stale ETag returned " + evidence));
+    }
+
+    private List<Finding> probeIfNoneMatchETag(String prefix) throws Exception {
+        String key = prefix + "object";
+        PutObjectResponse initial = bucket.putObject(key, "hello");
+        bucket.headObjectWithETag(key, initial.eTag(), target.eventualConsistencyDelay());
+
+        String evidence = conditionalPut(key, b -> b.ifNoneMatch(initial.eTag()));
+        return List.of(new Finding(Quirk.PUT_OBJECT_IF_NONE_MATCH_ETAG_NOT_SUPPORTED, !evidence.equals("412"), "If-None-Match with the current ETag returned " + evidence));
+    }
+
+    private List<Finding> probeIfNoneMatchStar(String prefix) throws Exception {
+        String key = prefix + "object";
+        PutObjectResponse initial = bucket.putObject(key, "hello");
+        bucket.headObjectWithETag(key, initial.eTag(), target.eventualConsistencyDelay());
+
+        String evidence = conditionalPut(key, b -> b.ifNoneMatch("*"));
+        return List.of(new Finding(Quirk.PUT_OBJECT_IF_NONE_MATCH_STAR_NOT_SUPPORTED, !evidence.equals("412"), "If-None-Match: * on an existing object returned " + evidence));
+    }
+
+    private List<Finding> probeStorageClass(String prefix) {
+        String key = prefix + "object";
+        try {
+            bucket.putObject(r -> r.key(key).storageClass(StorageClass.STANDARD_IA), "cold");
+        } catch (S3Exception e) {
+            return List.of(new Finding(Quirk.STORAGE_CLASS_NOT_KEPT, true, "PutObject with STANDARD_IA failed with " + e.statusCode()));
+        }
+
+        StorageClass storageClass = bucket.headObject(key).storageClass();
+        return List.of(new Finding(Quirk.STORAGE_CLASS_NOT_KEPT, storageClass != StorageClass.STANDARD_IA, "storage class " + storageClass));
+    }
+
+    /**
+     * Overwrites {@code key} with a conditional put that should fail.
+     *
+     * @return the status code of the rejection, or {@code "success"} if the object was overwritten
+     */
+    private String conditionalPut(String key, Consumer<PutObjectRequest.Builder> condition) {
+        try {
+            bucket.putObject(b -> condition.accept(b.key(key)), "bar");
+            return "success";
+        } catch (S3Exception e) {
+            return Integer.toString(e.statusCode());
+        }
+    }
+
+    private int putRaw(String prefix, byte[] probe) throws IOException {
+        byte[] data = "probe".getBytes(StandardCharsets.UTF_8);
+        return raw.putObject(bucket.name(), data, prefix.getBytes(StandardCharsets.UTF_8), probe, ".key".getBytes(StandardCharsets.UTF_8)).status();
+    }
+
+    private void deleteRunPrefix() throws IOException {
+        byte[] prefix = runPrefix.getBytes(StandardCharsets.UTF_8);
+        String continuationToken = null;
+        do {
+            RawS3Client.ListPage page = raw.listObjectKeys(bucket.name(), prefix, continuationToken);
+            raw.deleteObjects(bucket.name(), page.keys());
+            continuationToken = page.nextContinuationToken();
+        } while (continuationToken != null);
+    }
+
+    private static String toToml(ServiceDefinition target, List<Finding> findings) {
+        StringBuilder toml = new StringBuilder();
+        toml.append("# Detected by DetectQuirks against ").append(target.endpoint()).append(" at ").append(Instant.now()).append('\n');
+        for (Finding finding : findings) {
+            String outcome = finding.present() == null ? "unknown" : finding.present() ? "present" : "absent";
+            toml.append("# ").append(finding.quirk()).append(": ").append(outcome).append(", ").append(finding.evidence().replace('\n', ' ')).append('\n');
+        }
+
+        List<String> present = findings.stream()
+                .filter(finding -> Boolean.TRUE.equals(finding.present()))
+                .map(finding -> "    \"" + finding.quirk() + "\"")
+                .toList();
+        toml.append("quirks = [");
+        if (!present.isEmpty()) {
+            toml.append('\n').append(String.join(",\n", present)).append('\n');
+        }
+        toml.append("]\n");
+        return toml.toString();
+    }
+
+    private static boolean isSuccess(int status) {
+        return status / 100 == 2;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -21,6 +21,8 @@ package com.datadobi.s3test;
 import com.datadobi.s3test.s3.S3;
 import com.datadobi.s3test.s3.S3TestBase;
 import com.datadobi.s3test.s3.SkipForQuirks;
+import com.datadobi.s3test.util.CompactKeySet;
+import com.datadobi.s3test.util.KeyOrderChecker;
 import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
 import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
@@ -50,20 +52,15 @@ public class ListObjectsTests extends S3TestBase {
      */
     @Test
     public void serialListObjectsV1GetsAllKeys() {
-        Set<String> generatedKeys = new HashSet<>();
+        bucket.putObjects(143, Integer::toString, Integer::toString);
+        var generatedKeys = new CompactKeySet();
         for (var i = 0; i < 143; i++) {
-            var key = Integer.toString(i);
-            bucket.putObject(key, key);
-            generatedKeys.add(key);
+            generatedKeys.add(Integer.toString(i));
         }
 
-        var keys = bucket.listObjectKeys(V2, 7);
-        var actualKeys = new HashSet<>(keys);
-        assertEquals(
-                "ListObjectsV1 should return all generated keys",
-                generatedKeys,
-                actualKeys
-        );
+        var diff = generatedKeys.diff(bucket.streamObjectKeys(null, 7));
+        // Only completeness; listing order is checked by thatServerSortsInUtf8Binary
+        assertTrue("ListObjectsV1 should return all generated keys: " + diff.summary(), diff.missing() == 0 && diff.extra() == 0);
     }
 
     /**
@@ -72,20 +69,15 @@ public class ListObjectsTests extends S3TestBase {
      */
     @Test
     public void serialListObjectsV2GetsAllKeys() {
-        Set<String> generatedKeys = new HashSet<>();
+        bucket.putObjects(143, Integer::toString, Integer::toString);
+        var generatedKeys = new CompactKeySet();
         for (var i = 0; i < 143; i++) {
-            var key = Integer.toString(i);
-            bucket.putObject(key, key);
-            generatedKeys.add(key);
+            generatedKeys.add(Integer.toString(i));
         }
 
-        var keys = bucket.listObjectKeys(V2, 7);
-        var actualKeys = new HashSet<>(keys);
-        assertEquals(
-                "ListObjectsV2 should return all generated keys",
-                generatedKeys,
-                actualKeys
-        );
+        var diff = generatedKeys.diff(bucket.streamObjectKeys(null, 7));
+        // Only completeness; listing order is checked by thatServerSortsInUtf8Binary
+        assertTrue("ListObjectsV2 should return all generated keys: " + diff.summary(), diff.missing() == 0 && diff.extra() == 0);
     }
 
     /**
@@ -198,6 +190,12 @@ public class ListObjectsTests extends S3TestBase {
             assertEquals("No keys should be after CP_MAX in UTF-8 order",
                     List.of(), bucket.listObjectKeys(V2, null, CP_MAX));
         }
+
+        // Order must also hold across page boundaries
+        var checker = target.hasQuirk(KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER) ? KeyOrderChecker.utf16() : KeyOrderChecker.utf8();
+        bucket.streamObjectKeys(null, 2).forEach(checker::accept);
+        assertTrue(checker.summary(), checker.isOrdered());
+        assertEquals("All keys should be listed", 5, checker.count());
     }
 
     /**
@@ -264,9 +262,7 @@ public class ListObjectsTests extends S3TestBase {
     }
 
     private void validateListObjects(S3.ListObjectsVersion listObjectsVersion, Map<String, String> content) {
-        for (var entry : content.entrySet()) {
-            bucket.putObject(entry.getKey(), entry.getValue());
-        }
+        bucket.putObjects(content);
 
         List<String> expectedKeys = new ArrayList<>(content.keySet());
         expectedKeys.sort(Comparator.comparing(
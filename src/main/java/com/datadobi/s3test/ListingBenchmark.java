@@ -0,0 +1,231 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.dataset.DatasetBuilder;
+import com.datadobi.s3test.dataset.DatasetSpec;
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import com.datadobi.s3test.util.LatencyRecorder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures delimiter listings over hierarchies of different shapes.
+ * <p>
+ * Each shape is stored as a {@link DatasetSpec dataset}, so an existing bucket keeps the generated objects for later
+ * runs. The benchmark walks the whole hierarchy with {@code delimiter=/}, listing every common prefix it finds, and
+ * reports the latency of individual pages and the time to walk the tree.
+ */
+public class ListingBenchmark {
+    private enum Shape {
+        /**
+         * Sixteen levels of binary directories.
+         */
+        DEEP,
+        /**
+         * One level of many directories with 100 objects each.
+         */
+        WIDE,
+        /**
+         * One directory per object; every page of the root listing is full of common prefixes.
+         */
+        PREFIXES,
+        /**
+         * Four directories sharing all objects; the root listing has to skip over all of them.
+         */
+        SPARSE,
+        ;
+
+        private DatasetSpec spec(long count) {
+            String name = "listing-" + name().toLowerCase(Locale.ROOT) + "-" + count;
+            return switch (this) {
+                case DEEP -> spec(name, 16, 2, Math.max(1, count >> 16), count);
+                case WIDE -> spec(name, 1, (int) Math.max(1, count / 100), 100, count);
+                case PREFIXES -> spec(name, 1, (int) count, 1, count);
+                case SPARSE -> spec(name, 1, 4, (count + 3) / 4, count);
+            };
+        }
+
+        private static DatasetSpec spec(String name, int depth, int fanout, long objectsPerDirectory, long count) {
+            return new DatasetSpec(name, "%08d", depth, fanout, objectsPerDirectory, count, DatasetSpec.SizeDistribution.FIXED, 0, 0, 0);
+        }
+    }
+
+    private record WalkResult(long objects, long prefixes, long pages, long elapsedNanos, LatencyRecorder pageLatency) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        List<Shape> shapes = new ArrayList<>();
+        long count = 100_000;
+        int maxKeys = 1000;
+        int threads = 1;
+        boolean cleanup = false;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-s", "--shape" -> shapes.add(Shape.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                case "-n", "--objects" -> count = Long.parseLong(args[++i]);
+                case "-m", "--max-keys" -> maxKeys = Integer.parseInt(args[++i]);
+                case "-t", "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--cleanup" -> cleanup = true;
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: ListingBenchmark [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH   Load additional configuration from PATH");
+            System.err.println("  -s --shape SHAPE   deep, wide, prefixes or sparse; may be repeated (default all)");
+            System.err.println("  -n --objects N     Number of objects per shape (default 100000)");
+            System.err.println("  -m --max-keys N    Page size of the listings (default 1000)");
+            System.err.println("  -t --threads N     Number of prefixes listed concurrently (default 1)");
+            System.err.println("  --cleanup          Delete the datasets afterwards instead of keeping them for later runs");
+            System.exit(1);
+        }
+
+        if (shapes.isEmpty()) {
+            shapes.addAll(List.of(Shape.values()));
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i]));
+
+        System.out.printf("%-9s %10s %9s %7s %9s %10s  %s%n", "Shape", "Objects", "Prefixes", "Pages", "Walk (s)", "Objects/s", "Page latency");
+        try (S3Client s3 = S3.createClient(target)) {
+            if (target.createBucket()) {
+                S3.createBucketAndWait(s3, target.bucket());
+            }
+            S3Bucket bucket = new S3Bucket(s3, target.bucket());
+            DatasetBuilder datasets = new DatasetBuilder(bucket, System.err::println);
+
+            try {
+                for (Shape shape : shapes) {
+                    DatasetSpec spec = shape.spec(count);
+                    datasets.ensure(spec);
+
+                    WalkResult result = walk(bucket, spec.prefix(), maxKeys, threads);
+                    double seconds = result.elapsedNanos() / 1e9;
+                    System.out.printf("%-9s %10d %9d %7d %9.2f %10.0f  %s%n",
+                            shape.name().toLowerCase(Locale.ROOT),
+                            result.objects(),
+                            result.prefixes(),
+                            result.pages(),
+                            seconds,
+                            result.objects() / seconds,
+                            result.pageLatency().summary());
+
+                    if (cleanup && !target.createBucket()) {
+                        datasets.delete(spec);
+                    }
+                }
+            } finally {
+                if (target.createBucket()) {
+                    S3.clearBucket(s3, target.bucket());
+                    S3.deleteBucket(s3, target.bucket());
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists {@code root} and every common prefix below it with {@code delimiter=/}, using up to {@code threads}
+     * concurrent listings.
+     */
+    private static WalkResult walk(S3Bucket bucket, String root, int maxKeys, int threads) throws InterruptedException {
+        LatencyRecorder pageLatency = new LatencyRecorder();
+        AtomicLong objects = new AtomicLong();
+        AtomicLong prefixes = new AtomicLong();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listPrefix(root);
+                }
+
+                private void listPrefix(String prefix) {
+                    try {
+                        String continuationToken = null;
+                        do {
+                            String token = continuationToken;
+                            long pageStart = System.nanoTime();
+                            ListObjectsV2Response page = bucket.listObjectsV2(r -> r
+                                    .prefix(prefix)
+                                    .delimiter("/")
+                                    .maxKeys(maxKeys)
+                                    .continuationToken(token));
+                            pageLatency.recordNanos(System.nanoTime() - pageStart);
+
+                            objects.addAndGet(page.contents().size());
+                            prefixes.addAndGet(page.commonPrefixes().size());
+                            for (CommonPrefix commonPrefix : page.commonPrefixes()) {
+                                outstanding.incrementAndGet();
+                                executor.execute(() -> listPrefix(commonPrefix.prefix()));
+                            }
+                            continuationToken = page.nextContinuationToken();
+                        } while (continuationToken != null && failure.get() == null);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        if (outstanding.decrementAndGet() == 0 || failure.get() != null) {
+                            done.countDown();
+                        }
+                    }
+                }
+            });
+            done.await();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return new WalkResult(objects.get(), prefixes.get(), pageLatency.count(), System.nanoTime() - start, pageLatency);
+    }
+}
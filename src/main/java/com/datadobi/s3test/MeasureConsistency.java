@@ -0,0 +1,300 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import com.datadobi.s3test.util.LatencyRecorder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Measures how long it takes for writes to become visible to subsequent reads on a target, and suggests an
+ * {@code eventual_consistency_delay_ms} for its configuration file.
+ * <p>
+ * Each probe performs a write and then repeatedly reads until the write is visible. The reported lag is the time
+ * between the write returning and the start of the first read that observed it, so a lag of zero means the read
+ * immediately following the write was consistent.
+ */
+public class MeasureConsistency {
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private enum Probe {
+        PUT_GET("PUT -> GET") {
+            @Override
+            @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) {
+                bucket.putObject(key, "v1");
+                return measure(timeout, () -> "v1".equals(getOrNull(bucket, key)));
+            }
+        },
+        PUT_HEAD("PUT -> HEAD") {
+            @Override
+            @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) {
+                bucket.putObject(key, "v1");
+                return measure(timeout, () -> exists(bucket, key));
+            }
+        },
+        PUT_LIST("PUT -> LIST") {
+            @Override
+            @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) {
+                bucket.putObject(key, "v1");
+                return measure(timeout, () -> listed(bucket, key));
+            }
+        },
+        OVERWRITE_GET("Overwrite -> GET") {
+            @Override
+            @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) throws Exception {
+                String eTag = bucket.putObject(key, "v1").eTag();
+                bucket.headObjectWithETag(key, eTag, timeout);
+                bucket.putObject(key, "v2");
+                return measure(timeout, () -> "v2".equals(getOrNull(bucket, key)));
+            }
+        },
+        DELETE_GET("DELETE -> GET") {
+            @Override
+            @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) throws Exception {
+                String eTag = bucket.putObject(key, "v1").eTag();
+                bucket.headObjectWithETag(key, eTag, timeout);
+                bucket.deleteObject(key);
+                return measure(timeout, () -> getOrNull(bucket, key) == null);
+            }
+        },
+        DELETE_LIST("DELETE -> LIST") {
+            @Override
+            @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) throws Exception {
+                bucket.putObject(key, "v1");
+                bucket.awaitKeyListed(key, timeout);
+                bucket.deleteObject(key);
+                return measure(timeout, () -> !listed(bucket, key));
+            }
+        },
+        ;
+
+        private final String label;
+
+        Probe(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the visibility lag, or {@code null} if the write did not become visible within the timeout
+         */
+        abstract @Nullable Duration run(S3Bucket bucket, String key, Duration timeout) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        int probes = 100;
+        int threads = 16;
+        Duration timeout = Duration.ofSeconds(60);
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-n", "--probes" -> probes = Integer.parseInt(args[++i]);
+                case "-t", "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--timeout" -> timeout = Duration.ofSeconds(Long.parseLong(args[++i]));
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: MeasureConsistency [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH     Load additional configuration from PATH");
+            System.err.println("  -n --probes N        Number of probes per operation pair (default 100)");
+            System.err.println("  -t --threads N       Number of probes to run concurrently (default 16)");
+            System.err.println("  --timeout SECONDS    Give up on a single probe after SECONDS (default 60)");
+            System.exit(1);
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i]));
+
+        Map<Probe, LatencyRecorder> lags = new EnumMap<>(Probe.class);
+        Map<Probe, AtomicInteger> timeouts = new EnumMap<>(Probe.class);
+        for (Probe probe : Probe.values()) {
+            lags.put(probe, new LatencyRecorder());
+            timeouts.put(probe, new AtomicInteger());
+        }
+
+        try (S3Client s3 = S3.createClient(target)) {
+            if (target.createBucket()) {
+                S3.createBucketAndWait(s3, target.bucket());
+            }
+            S3Bucket bucket = new S3Bucket(s3, target.bucket());
+
+            System.out.println("Measuring consistency of " + target.host() + " with " + probes + " probes per operation pair");
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                String run = UUID.randomUUID().toString();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int n = 0; n < probes; n++) {
+                    // Interleave the probe types so they all see the same server load
+                    for (Probe probe : Probe.values()) {
+                        String key = "consistency-" + run + "/" + probe.name().toLowerCase(Locale.ROOT) + "/" + n;
+                        Duration probeTimeout = timeout;
+                        futures.add(executor.submit(() -> {
+                            Duration lag = probe.run(bucket, key, probeTimeout);
+                            if (lag == null) {
+                                timeouts.get(probe).incrementAndGet();
+                            } else {
+                                lags.get(probe).record(lag);
+                            }
+                            return null;
+                        }));
+                    }
+                }
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        System.err.println("Probe failed: " + e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+
+                S3.clearBucket(s3, target.bucket());
+                if (target.createBucket()) {
+                    S3.deleteBucket(s3, target.bucket());
+                }
+            }
+        }
+
+        report(lags, timeouts, timeout);
+    }
+
+    private static void report(Map<Probe, LatencyRecorder> lags, Map<Probe, AtomicInteger> timeouts, Duration timeout) {
+        System.out.println();
+        System.out.printf("%-18s %7s %10s %9s %9s %9s %9s %9s%n", "Operations", "Probes", "Immediate", "p50", "p90", "p99", "max", "Timeouts");
+
+        Duration maxLag = Duration.ZERO;
+        int totalTimeouts = 0;
+        for (Probe probe : Probe.values()) {
+            LatencyRecorder recorder = lags.get(probe);
+            int timedOut = timeouts.get(probe).get();
+            int total = recorder.count() + timedOut;
+            double immediate = total == 0 ? 0 : 100.0 * recorder.countAtMost(0) / total;
+            System.out.printf("%-18s %7d %9.1f%% %7dms %7dms %7dms %7dms %9d%n",
+                    probe.label, total, immediate,
+                    recorder.percentile(50).toMillis(), recorder.percentile(90).toMillis(),
+                    recorder.percentile(99).toMillis(), recorder.max().toMillis(), timedOut);
+
+            if (recorder.max().compareTo(maxLag) > 0) {
+                maxLag = recorder.max();
+            }
+            totalTimeouts += timedOut;
+        }
+
+        System.out.println();
+        if (totalTimeouts > 0) {
+            System.out.println(totalTimeouts + " writes did not become visible within " + timeout.toSeconds() + "s; "
+                    + "the target may not be consistent at all, or needs a longer --timeout.");
+            return;
+        }
+
+        // Leave headroom over the worst observed lag; waits end as soon as the write is visible anyway
+        long suggestedMs = Math.max(1000, (maxLag.toMillis() * 2 + 99) / 100 * 100);
+        System.out.println("Suggested configuration:");
+        System.out.println("  eventual_consistency_delay_ms = " + suggestedMs);
+    }
+
+    private static @Nullable Duration measure(Duration timeout, BooleanSupplier visible) {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        boolean first = true;
+        while (true) {
+            long attempt = System.nanoTime();
+            if (visible.getAsBoolean()) {
+                // The read right after the write was consistent; report exactly zero so it counts as immediate
+                return first ? Duration.ZERO : Duration.ofNanos(attempt - start);
+            }
+            first = false;
+            if (System.nanoTime() > deadline) {
+                return null;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private static @Nullable String getOrNull(S3Bucket bucket, String key) {
+        try {
+            return new String(bucket.getObjectContent(key), StandardCharsets.UTF_8);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean exists(S3Bucket bucket, String key) {
+        try {
+            bucket.headObject(key);
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean listed(S3Bucket bucket, String key) {
+        return bucket.listObjectsV2(r -> r.prefix(key)).contents().stream().anyMatch(o -> o.key().equals(key));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.results.TestResult;
+import com.datadobi.s3test.results.TestRun;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Combines the result files written by {@code RunTests --results} for several shards into a single report.
+ */
+public class MergeResults {
+    public static void main(String[] args) throws IOException {
+        Path outputPath = null;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-o", "--output" -> outputPath = Path.of(args[++i]);
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: MergeResults [options] RESULTS...");
+            System.err.println("Options:");
+            System.err.println("  -o --output PATH  Write the merged results to PATH");
+            System.exit(1);
+        }
+
+        List<TestRun> runs = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (; i < args.length; i++) {
+            Path path = Path.of(args[i]);
+            TestRun run = TestRun.read(path);
+            runs.add(run);
+
+            double totalMs = run.tests().stream().mapToDouble(TestResult::durationMs).sum();
+            System.out.printf(Locale.ROOT, "%s: shard %s, %d tests, %.1fs%n", path, run.shard() == null ? "-" : run.shard(), run.tests().size(), totalMs / 1000);
+            for (TestResult test : run.tests()) {
+                if (!seen.add(test.id())) {
+                    System.out.println("  " + test.id() + " also ran in another shard");
+                }
+            }
+        }
+
+        TestRun merged = TestRun.merge(runs);
+        System.out.println();
+        System.out.println("S3 tests: " + merged.target());
+
+        Map<TestResult.Status, Integer> counts = new EnumMap<>(TestResult.Status.class);
+        for (TestResult test : merged.tests()) {
+            counts.merge(test.status(), 1, Integer::sum);
+            if (test.status() == TestResult.Status.FAILED) {
+                System.out.println("  " + test.id() + " ❌");
+                System.out.println("    " + test.message());
+            }
+        }
+        System.out.printf(
+                "%d tests: %d passed, %d failed, %d skipped%n",
+                merged.tests().size(),
+                counts.getOrDefault(TestResult.Status.PASSED, 0),
+                counts.getOrDefault(TestResult.Status.FAILED, 0),
+                counts.getOrDefault(TestResult.Status.SKIPPED, 0)
+        );
+
+        if (outputPath != null) {
+            merged.write(outputPath);
+        }
+
+        if (counts.getOrDefault(TestResult.Status.FAILED, 0) > 0) {
+            System.exit(2);
+        }
+    }
+}
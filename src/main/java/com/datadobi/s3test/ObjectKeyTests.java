@@ -18,33 +18,15 @@
  */
 package com.datadobi.s3test;
 
+import com.datadobi.s3test.s3.RawS3Client;
 import com.datadobi.s3test.s3.S3;
 import com.datadobi.s3test.s3.S3TestBase;
 import com.datadobi.s3test.s3.SkipForQuirks;
-import com.datadobi.s3test.util.Pair;
-import com.datadobi.s3test.util.TLS;
 import com.google.common.collect.ImmutableList;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
 import org.junit.Test;
-import software.amazon.awssdk.auth.signer.AwsS3V4Signer;
-import software.amazon.awssdk.auth.signer.params.AwsS3V4SignerParams;
-import software.amazon.awssdk.http.SdkHttpFullRequest;
-import software.amazon.awssdk.http.SdkHttpMethod;
-import software.amazon.awssdk.regions.Region;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+
 import java.io.IOException;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.Normalizer;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -67,9 +49,19 @@ import static org.junit.Assume.assumeTrue;
  * </blockquote></p>
  */
 public class ObjectKeyTests extends S3TestBase {
+    private RawS3Client rawClient;
+
     public ObjectKeyTests() throws IOException {
     }
 
+    @After
+    public void closeRawClient() throws IOException {
+        if (rawClient != null) {
+            rawClient.close();
+            rawClient = null;
+        }
+    }
+
     /**
      * Puts an object with a simple key via raw signed PUT and verifies it appears in list.
      * Expected: HTTP 2xx; key "key" appears in ListObjects V2.
@@ -81,7 +73,7 @@ public class ObjectKeyTests extends S3TestBase {
         var content = "Content: " + UUID.randomUUID();
         var data = content.getBytes(UTF_8);
 
-        var status = putObject(target.signingRegion(), data, key.getBytes(UTF_8));
+        var status = putObject(data, key.getBytes(UTF_8));
         assertThat(status).as("Status should indicate success").matches(s -> s / 100 == 2, "HTTP 2xx status");
         var keys = bucket.listObjectKeys(S3.ListObjectsVersion.V2);
         assertThat(keys).as("Listed keys should contain the object that was written").contains(key);
@@ -105,7 +97,7 @@ public class ObjectKeyTests extends S3TestBase {
 
         bucket.putObject("a/b/c", data);
 
-        var status = putObject(target.signingRegion(), data, keyPrefix.getBytes(UTF_8), clappingHands, keySuffix.getBytes(UTF_8));
+        var status = putObject(data, keyPrefix.getBytes(UTF_8), clappingHands, keySuffix.getBytes(UTF_8));
         assertThat(status).as("Status should indicate success").matches(s -> s / 100 == 2, "HTTP 2xx status");
         var keys = bucket.listObjectKeys(S3.ListObjectsVersion.V2);
         assertThat(keys).as("Listed keys should contain key with high codepoint").contains(expectedKey);
@@ -161,7 +153,7 @@ public class ObjectKeyTests extends S3TestBase {
 
         var data = ("Content: " + UUID.randomUUID()).getBytes(UTF_8);
 
-        var status = putObject(target.signingRegion(), data, keyPrefix, highSurrogate, lowSurrogate, keySuffix);
+        var status = putObject(data, keyPrefix, highSurrogate, lowSurrogate, keySuffix);
         assertThat(status).as("Put object with invalid UTF-8 bytes should be rejected").matches(s -> s / 100 > 3, "HTTP status of 300 or above");
     }
 
@@ -177,7 +169,7 @@ public class ObjectKeyTests extends S3TestBase {
         var key = "min-codepoint-\u0001.key";
         var keyBytes = key.getBytes(UTF_8);
         var data = ("Content: " + UUID.randomUUID()).getBytes(UTF_8);
-        var status = putObject(target.signingRegion(), data, keyBytes);
+        var status = putObject(data, keyBytes);
         assertThat(status).as("Put object with key containing min codepoint should be accepted").matches(s -> s / 100 == 2, "HTTP 2xx status");
     }
 
@@ -196,7 +188,7 @@ public class ObjectKeyTests extends S3TestBase {
 
         var data = ("Content: " + UUID.randomUUID()).getBytes(UTF_8);
 
-        var status = putObject(target.signingRegion(), data, keyPrefix, nullEncoding, keySuffix);
+        var status = putObject(data, keyPrefix, nullEncoding, keySuffix);
         assertThat(status).as("Put object with invalid UTF-8 bytes should be rejected").matches(s -> s / 100 > 3, "HTTP status of 300 or above");
     }
 
@@ -215,7 +207,7 @@ public class ObjectKeyTests extends S3TestBase {
 
         var data = ("Content: " + UUID.randomUUID()).getBytes(UTF_8);
 
-        var status = putObject(target.signingRegion(), data, keyPrefix, nullEncoding, keySuffix);
+        var status = putObject(data, keyPrefix, nullEncoding, keySuffix);
         assertThat(status).as("Put object with invalid UTF-8 bytes should be rejected").matches(s -> s / 100 > 3, "HTTP status of 300 or above");
     }
 
@@ -242,7 +234,7 @@ public class ObjectKeyTests extends S3TestBase {
 
         var data = ("Content: " + UUID.randomUUID()).getBytes(UTF_8);
 
-        var status = putObject(target.signingRegion(), data, keyPrefix, a, keySuffix);
+        var status = putObject(data, keyPrefix, a, keySuffix);
         assertThat(status).as("Put object with invalid UTF-8 bytes should be rejected").matches(s -> s / 100 > 3, "HTTP status of 300 or above");
     }
 
@@ -280,7 +272,7 @@ public class ObjectKeyTests extends S3TestBase {
 
         for (var equivalentStrings : equivalentStringTuples) {
             var testData = "Content: " + UUID.randomUUID();
-            var status = putObject(target.signingRegion(), testData.getBytes(UTF_8), equivalentStrings.getFirst().getBytes(UTF_8));
+            var status = putObject(testData.getBytes(UTF_8), equivalentStrings.getFirst().getBytes(UTF_8));
             assertThat(status).as("putting the object should succeed").matches(s -> s / 100 == 2, "HTTP 2xx status");
 
             //check that we can retrieve
@@ -312,134 +304,44 @@ public class ObjectKeyTests extends S3TestBase {
 
         var data = ("Content: " + UUID.randomUUID()).getBytes(UTF_8);
 
-        var status = putObject(target.signingRegion(), data, keyPrefix, nullEncoding, keySuffix);
+        var status = putObject(data, keyPrefix, nullEncoding, keySuffix);
         assertThat(status).as("Put object with null key is accepted").matches(s -> s / 100 == 2, "HTTP status of 2** or below");
 
-        status = putObject(target.signingRegion(), data, keyPrefix, capitalAEncoding, keySuffix);
+        status = putObject(data, keyPrefix, capitalAEncoding, keySuffix);
         assertThat(status).as("Put object with non-null key is accepted").matches(s -> s / 100 == 2, "HTTP status of 2** or below");
 
         var keys = bucket.listObjectKeys(S3.ListObjectsVersion.V2);
         assertThat(keys).as("Keys should be sorted with null before A").containsExactly("with-null-byte-\0.key", "with-null-byte-A.key");
     }
 
-    private String urlEncode(byte[]... chunks) {
-        var b = new StringBuilder();
-        for (var chunk : chunks) {
-            for (var b1 : chunk) {
-                //for ASCII chars, use the regular percent-encoding
-                if (/*b1 < 128 &&*/ b1 > 32) {
-                    //^^ bytes are signed in Java, so always < 128...
-                    b.append(URLEncoder.encode("" + (char) b1, StandardCharsets.US_ASCII));
-                } else {
-                    //for all other characters, explicitly control the percent-escaping to encode the binary code point
-                    b.append(String.format("%%%02X", b1));
-                }
-            }
-        }
-        return b.toString();
-    }
-
     /**
      * You need to specify the bytes, so that Java doesn't try to do UTF-8 validation and fixing client side. We really want to send these bytes
      * to the server.
      */
-    private int putObject(Region signingRegion, byte[] testData, byte[]... keyBytes) throws IOException {
-        var key = urlEncode(keyBytes);
-        //don't use the standard SDK, we want to force invalid key names without client-side validation of the keys
-        var full = target.endpoint().resolve(bucket.name() + "/" + key);
-        var authHeaders = awsSignPutRequest(testData, full, signingRegion.id());
-
-        var sslConnectionSocketFactory = new SSLConnectionSocketFactory(
-                TLS.createLenientSSLSocketFactory(TLS.createLenientTrustManager()),
-                new NoopHostnameVerifier()
-        );
-
-        try (var httpClient = HttpClientBuilder.create()
-                //don't normalize URI's, we carefully craft them!
-                .setDefaultRequestConfig(
-                        RequestConfig.copy(RequestConfig.DEFAULT).setNormalizeUri(false).build())
-                .setSSLSocketFactory(sslConnectionSocketFactory)
-                .setSSLHostnameVerifier(new NoopHostnameVerifier())
-                .build()) {
-            var httpPut = new HttpPut(full);
-            httpPut.setEntity(new ByteArrayEntity(testData));
-            for (var header : authHeaders.entrySet()) {
-                httpPut.setHeader(header.getKey(), header.getValue());
-            }
-
-            var attempt = 0;
-
-            while (true) {
-                var resp = httpClient.execute(httpPut, response -> {
-                    byte[] responseContent;
-                    var e = response.getEntity();
-                    if (e != null) {
-                        var out = new ByteArrayOutputStream();
-                        e.writeTo(out);
-                        responseContent = out.toByteArray();
-                    } else {
-                        responseContent = null;
-                    }
-                    return Pair.create(response.getStatusLine().getStatusCode(), responseContent);
-                });
-
-                // handle the case where the bucket does not exist yet
-                if (Objects.equals(resp.first(), 404) && attempt < 10) {
-                    System.out.println("  Retry[" + attempt + "] putObject: " + resp.first());
-                    try {
-                        Thread.sleep(100 + attempt * 100L);
-                    } catch (InterruptedException interruptedException) {
-                        // abort
-                        return resp.first();
-                    }
-                    attempt++;
-                } else {
-                    return resp.first();
-                }
-            }
+    private int putObject(byte[] testData, byte[]... keyBytes) throws IOException {
+        if (rawClient == null) {
+            //don't use the standard SDK, we want to force invalid key names without client-side validation of the keys
+            rawClient = new RawS3Client(target);
         }
-    }
 
-    private Map<String, String> awsSignPutRequest(byte[] testData, URI full, String signingRegion) {
-        var credentials = target.getCredentials().resolveCredentials();
-
-        //Use the AWS sdk to generate the Authorization header.
-        var r = SdkHttpFullRequest.builder();
-
-        r.method(SdkHttpMethod.PUT);
-        r.contentStreamProvider(() -> new ByteArrayInputStream(testData));
-        r.protocol(full.getScheme());
-        r.uri(full);
-        r.appendHeader("x-amz-content-sha256", hash(testData));
-        r.appendHeader("Content-Type", "text/plain");
-        r.appendHeader("Content-Length", Integer.toString(testData.length));
-
-        var s = AwsS3V4Signer.create();
-        var signedReq = s.sign(
-                r.build(),
-                AwsS3V4SignerParams.builder()
-                        .signingName("s3")
-                        .signingRegion(Region.of(signingRegion))
-                        .awsCredentials(credentials)
-                        .doubleUrlEncode(false)
-                        .build()
-        );
+        var attempt = 0;
 
-        var headers = signedReq.headers().entrySet().stream().collect(Collectors.toMap(
-                Map.Entry::getKey,
-                e -> e.getValue().getFirst()
-        ));
-        headers.remove("Content-Length");
-        headers.remove("Host");
-        return headers;
-    }
+        while (true) {
+            var resp = rawClient.putObject(bucket.name(), testData, keyBytes);
 
-    private String hash(byte[] data) {
-        try {
-            var digest = MessageDigest.getInstance("SHA-256").digest(data);
-            return HexFormat.of().formatHex(digest);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+            // handle the case where the bucket does not exist yet
+            if (resp.status() == 404 && attempt < 10) {
+                System.out.println("  Retry[" + attempt + "] putObject: " + resp.status());
+                try {
+                    Thread.sleep(100 + attempt * 100L);
+                } catch (InterruptedException interruptedException) {
+                    // abort
+                    return resp.status();
+                }
+                attempt++;
+            } else {
+                return resp.status();
+            }
         }
     }
 }
@@ -0,0 +1,285 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.dataset.DatasetBuilder;
+import com.datadobi.s3test.dataset.DatasetSpec;
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures whether the cost of fetching a page of a listing grows with its position in the listing.
+ * <p>
+ * Servers that resume a listing by rescanning it from the start make page {@code n} take {@code O(n)} time, so a full
+ * walk takes {@code O(n²)}. The profiler walks the bucket with V1 markers, V2 continuation tokens and V2
+ * {@code start-after}, for several page sizes, and compares the latency of the last pages with that of the first. It
+ * also lists single pages starting at increasing depths, which isolates the cost of seeking to a position.
+ */
+public class PaginationProfiler {
+    /**
+     * Ratio of the median latency of the last tenth of the pages to that of the first tenth above which growth is
+     * flagged.
+     */
+    private static final double GROWTH_THRESHOLD = 2.0;
+    private static final int JUMP_REPEATS = 5;
+
+    private enum Mode {
+        V1_MARKER,
+        V2_CONTINUATION_TOKEN,
+        V2_START_AFTER,
+    }
+
+    private record Walk(Mode mode, int maxKeys, long[] pageNanos, List<String> pageBoundaries) {
+        private long totalNanos() {
+            return Arrays.stream(pageNanos).sum();
+        }
+
+        private long firstDecileMedian() {
+            return median(pageNanos, 0, Math.max(1, pageNanos.length / 10));
+        }
+
+        private long lastDecileMedian() {
+            return median(pageNanos, pageNanos.length - Math.max(1, pageNanos.length / 10), pageNanos.length);
+        }
+
+        private double growth() {
+            return (double) lastDecileMedian() / Math.max(1, firstDecileMedian());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        String prefix = null;
+        List<Integer> pageSizes = new ArrayList<>();
+        long populate = 0;
+        Path csvPath = null;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-p", "--prefix" -> prefix = args[++i];
+                case "-m", "--max-keys" -> pageSizes.add(Integer.parseInt(args[++i]));
+                case "-n", "--populate" -> populate = Long.parseLong(args[++i]);
+                case "--csv" -> csvPath = Path.of(args[++i]);
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: PaginationProfiler [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH    Load additional configuration from PATH");
+            System.err.println("  -p --prefix PREFIX  Only list keys starting with PREFIX");
+            System.err.println("  -m --max-keys N     Page size; may be repeated (default 100 and 1000)");
+            System.err.println("  -n --populate N     List a flat dataset of N objects, created if needed, instead of the bucket");
+            System.err.println("  --csv PATH          Write the latency of every page to PATH");
+            System.exit(1);
+        }
+
+        if (pageSizes.isEmpty()) {
+            pageSizes.addAll(List.of(100, 1000));
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i]));
+
+        List<Walk> walks = new ArrayList<>();
+        try (S3Client s3 = S3.createClient(target)) {
+            if (target.createBucket()) {
+                S3.createBucketAndWait(s3, target.bucket());
+            }
+            S3Bucket bucket = new S3Bucket(s3, target.bucket());
+
+            try {
+                if (populate > 0) {
+                    DatasetSpec spec = new DatasetSpec("pagination-" + populate, "%08d", 0, 0, 1, populate, DatasetSpec.SizeDistribution.FIXED, 0, 0, 0);
+                    new DatasetBuilder(bucket, System.err::println).ensure(spec);
+                    prefix = spec.prefix();
+                }
+
+                System.out.printf("%-22s %8s %7s %9s %12s %12s %7s%n", "Mode", "MaxKeys", "Pages", "Total (s)", "First (ms)", "Last (ms)", "Growth");
+                for (int maxKeys : pageSizes) {
+                    for (Mode mode : Mode.values()) {
+                        Walk walk = walk(bucket, mode, prefix, maxKeys);
+                        walks.add(walk);
+                        System.out.printf("%-22s %8d %7d %9.2f %12.1f %12.1f %6.1fx%s%n",
+                                mode.name().toLowerCase(Locale.ROOT),
+                                maxKeys,
+                                walk.pageNanos().length,
+                                walk.totalNanos() / 1e9,
+                                walk.firstDecileMedian() / 1e6,
+                                walk.lastDecileMedian() / 1e6,
+                                walk.growth(),
+                                walk.growth() > GROWTH_THRESHOLD ? "  page cost grows with depth" : "");
+                    }
+                }
+
+                System.out.println();
+                System.out.printf("%-22s %8s %12s%n", "Start after", "Depth", "Page (ms)");
+                Walk reference = walks.get(walks.size() - 1);
+                jumps(bucket, prefix, reference);
+            } finally {
+                if (target.createBucket()) {
+                    S3.clearBucket(s3, target.bucket());
+                    S3.deleteBucket(s3, target.bucket());
+                }
+            }
+        }
+
+        if (csvPath != null) {
+            writeCsv(csvPath, walks);
+        }
+    }
+
+    private static Walk walk(S3Bucket bucket, Mode mode, @Nullable String prefix, int maxKeys) {
+        long[] pageNanos = new long[64];
+        int pages = 0;
+        List<String> pageBoundaries = new ArrayList<>();
+
+        String position = null;
+        boolean truncated = true;
+        while (truncated) {
+            String from = position;
+            long start = System.nanoTime();
+            List<S3Object> contents;
+            switch (mode) {
+                case V1_MARKER -> {
+                    ListObjectsResponse page = bucket.listObjectsV1(r -> r.prefix(prefix).maxKeys(maxKeys).marker(from));
+                    contents = page.contents();
+                    truncated = Boolean.TRUE.equals(page.isTruncated());
+                    // Without a delimiter, NextMarker is optional and the last key is the marker
+                    position = page.nextMarker() != null ? page.nextMarker() : lastKey(contents);
+                }
+                case V2_CONTINUATION_TOKEN -> {
+                    ListObjectsV2Response page = bucket.listObjectsV2(r -> r.prefix(prefix).maxKeys(maxKeys).continuationToken(from));
+                    contents = page.contents();
+                    truncated = page.nextContinuationToken() != null;
+                    position = page.nextContinuationToken();
+                }
+                case V2_START_AFTER -> {
+                    ListObjectsV2Response page = bucket.listObjectsV2(r -> r.prefix(prefix).maxKeys(maxKeys).startAfter(from));
+                    contents = page.contents();
+                    truncated = Boolean.TRUE.equals(page.isTruncated());
+                    position = lastKey(contents);
+                }
+                default -> throw new IllegalStateException();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (pages == pageNanos.length) {
+                pageNanos = Arrays.copyOf(pageNanos, pages * 2);
+            }
+            pageNanos[pages++] = elapsed;
+
+            String last = lastKey(contents);
+            if (last != null) {
+                pageBoundaries.add(last);
+            }
+            if (contents.isEmpty() && position == null) {
+                break;
+            }
+        }
+        return new Walk(mode, maxKeys, Arrays.copyOf(pageNanos, pages), pageBoundaries);
+    }
+
+    /**
+     * Lists a single page starting after keys at increasing depths of the listing.
+     */
+    private static void jumps(S3Bucket bucket, @Nullable String prefix, Walk reference) {
+        List<String> boundaries = reference.pageBoundaries();
+        if (boundaries.isEmpty()) {
+            return;
+        }
+
+        long shallow = 0;
+        for (double depth : new double[]{0, 0.25, 0.5, 0.75, 1}) {
+            int index = (int) Math.min(boundaries.size() - 1, Math.round(depth * (boundaries.size() - 1)));
+            String startAfter = depth == 0 ? null : boundaries.get(index);
+
+            long[] samples = new long[JUMP_REPEATS];
+            for (int n = 0; n < JUMP_REPEATS; n++) {
+                long start = System.nanoTime();
+                bucket.listObjectsV2(r -> r.prefix(prefix).maxKeys(reference.maxKeys()).startAfter(startAfter));
+                samples[n] = System.nanoTime() - start;
+            }
+            long median = median(samples, 0, samples.length);
+            if (depth == 0) {
+                shallow = median;
+            }
+
+            boolean grows = depth > 0 && median > GROWTH_THRESHOLD * shallow;
+            System.out.printf("%-22s %7.0f%% %12.1f%s%n",
+                    startAfter == null ? "(start)" : abbreviate(startAfter),
+                    depth * 100,
+                    median / 1e6,
+                    grows ? "  seek cost grows with depth" : "");
+        }
+    }
+
+    private static void writeCsv(Path path, List<Walk> walks) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            out.println("mode,max_keys,page,nanos");
+            for (Walk walk : walks) {
+                for (int page = 0; page < walk.pageNanos().length; page++) {
+                    out.printf("%s,%d,%d,%d%n", walk.mode().name().toLowerCase(Locale.ROOT), walk.maxKeys(), page, walk.pageNanos()[page]);
+                }
+            }
+        }
+    }
+
+    private static @Nullable String lastKey(List<S3Object> contents) {
+        return contents.isEmpty() ? null : contents.get(contents.size() - 1).key();
+    }
+
+    private static long median(long[] values, int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String abbreviate(String key) {
+        return key.length() <= 22 ? key : "..." + key.substring(key.length() - 19);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.dataset.DatasetBuilder;
+import com.datadobi.s3test.dataset.DatasetManifest;
+import com.datadobi.s3test.dataset.DatasetSpec;
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.S3Bucket;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Creates or tops up the datasets described in a TOML file in an existing bucket.
+ */
+public class PopulateDatasets {
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+            }
+        }
+
+        if (args.length - i != 2) {
+            System.err.println("Usage: PopulateDatasets [options] DATASETS_TOML S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH   Load additional configuration from PATH");
+            System.exit(1);
+        }
+
+        List<DatasetSpec> specs = DatasetSpec.loadFromToml(Path.of(args[i]));
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i + 1]));
+
+        if (target.createBucket()) {
+            System.err.println("Bucket not specified in URI");
+            System.exit(1);
+        }
+
+        try (S3Client s3 = S3.createClient(target)) {
+            DatasetBuilder builder = new DatasetBuilder(new S3Bucket(s3, target.bucket()), System.out::println);
+            for (DatasetSpec spec : specs) {
+                long start = System.nanoTime();
+                DatasetManifest manifest = builder.ensure(spec);
+                System.out.printf("%s: %d objects, %d bytes (%.1fs)%n",
+                        spec.name(), manifest.count(), manifest.totalBytes(), (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+}
@@ -18,6 +18,8 @@
  */
 package com.datadobi.s3test;
 
+import com.datadobi.s3test.s3.ReadOnlyFixture;
+import com.datadobi.s3test.s3.S3Bucket;
 import com.datadobi.s3test.s3.S3TestBase;
 import org.junit.Test;
 import software.amazon.awssdk.services.s3.model.*;
@@ -37,23 +39,24 @@ public class PrefixDelimiterTests extends S3TestBase {
     public PrefixDelimiterTests() throws IOException {
     }
 
+    /**
+     * Objects a, a/b/0..9, a/c/0..9 and a/d.
+     */
+    @Override
+    protected void populateReadOnlyFixture(S3Bucket bucket) {
+        bucket.putObject("a", "a");
+        bucket.putObjects(10, i -> "a/b/" + i, Integer::toString);
+        bucket.putObjects(10, i -> "a/c/" + i, Integer::toString);
+        bucket.putObject("a/d", "d");
+    }
+
     /**
      * Lists with prefix="a/", delimiter="/", maxKeys=10. Bucket has a, a/b/0..9, a/c/0..9, a/d.
      * Expected: contents = ["a/d"]; commonPrefixes = ["a/b/", "a/c/"]; not truncated.
      */
     @Test
+    @ReadOnlyFixture
     public void testSimple() {
-        bucket.putObject("a", "a");
-
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/b/" + i, Integer.toString(i));
-        }
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/c/" + i, Integer.toString(i));
-        }
-
-        bucket.putObject("a/d", "d");
-
         var response = list(
                 r -> r
                         .maxKeys(10)
@@ -73,18 +76,8 @@ public class PrefixDelimiterTests extends S3TestBase {
      * Expected: contents = all a/b/0..9; commonPrefixes empty; not truncated.
      */
     @Test
+    @ReadOnlyFixture
     public void testTruncatedPrefix() {
-        bucket.putObject("a", "a");
-
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/b/" + i, Integer.toString(i));
-        }
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/c/" + i, Integer.toString(i));
-        }
-
-        bucket.putObject("a/d", "d");
-
         var result = list(
                 r -> r.maxKeys(10)
                         .startAfter(null)
@@ -103,18 +96,8 @@ public class PrefixDelimiterTests extends S3TestBase {
      * Expected: First page a/b/0..9, second a/c/0..9, third a/d; pagination via nextContinuationToken.
      */
     @Test
+    @ReadOnlyFixture
     public void testPrefixOnly() {
-        bucket.putObject("a", "a");
-
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/b/" + i, Integer.toString(i));
-        }
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/c/" + i, Integer.toString(i));
-        }
-
-        bucket.putObject("a/d", "d");
-
         Consumer<ListObjectsV2Request.Builder> request = r -> r
                 .maxKeys(10)
                 .startAfter(null)
@@ -203,12 +186,8 @@ public class PrefixDelimiterTests extends S3TestBase {
         bucket.putObject("a", "a");
 
         // Intentionally create 1000 objects to see if "d" is returned or not
-        for (var i = 0; i < 500; i++) {
-            bucket.putObject("b/" + i, Integer.toString(i));
-        }
-        for (var i = 0; i < 500; i++) {
-            bucket.putObject("c/" + i, Integer.toString(i));
-        }
+        bucket.putObjects(500, i -> "b/" + i, Integer::toString);
+        bucket.putObjects(500, i -> "c/" + i, Integer::toString);
 
         bucket.putObject("d", "d");
 
@@ -226,22 +205,12 @@ public class PrefixDelimiterTests extends S3TestBase {
     }
 
     /**
-     * Lists with prefix="/", delimiter="/". No keys start with "/".
+     * Lists with prefix="/", delimiter="/". Bucket has a, a/b/0..9, a/c/0..9, a/d; no keys start with "/".
      * Expected: Empty contents and empty commonPrefixes.
      */
     @Test
+    @ReadOnlyFixture
     public void testSlashPrefix() {
-        bucket.putObject("a", "a");
-
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/b/" + i, Integer.toString(i));
-        }
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("a/c/" + i, Integer.toString(i));
-        }
-
-        bucket.putObject("a/d", "d");
-
         list(
                 r -> r.maxKeys(10)
                         .startAfter(null)
@@ -264,12 +233,8 @@ public class PrefixDelimiterTests extends S3TestBase {
 
         // Intentionally create an object with a key matching the prefix to see if it's returned or not
         bucket.putObject("b/", "");
-        for (var i = 0; i < 200; i++) {
-            bucket.putObject("b/" + i, Integer.toString(i));
-        }
-        for (var i = 0; i < 10; i++) {
-            bucket.putObject("c/" + i, Integer.toString(i));
-        }
+        bucket.putObjects(200, i -> "b/" + i, Integer::toString);
+        bucket.putObjects(10, i -> "c/" + i, Integer::toString);
 
         bucket.putObject("d", "d");
 
@@ -25,7 +25,6 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.GZIPOutputStream;
@@ -182,8 +181,8 @@ public class PutObjectTests extends S3TestBase {
         var put1 = bucket.putObject(key, content);
         var info1 = bucket.headObjectWithETag(key, put1.eTag(), target.eventualConsistencyDelay());
 
-        // wait a bit
-        Thread.sleep(Duration.ofSeconds(2));
+        // LastModified has a resolution of one second
+        bucket.awaitServerTimeAfter(info1.lastModified(), target.eventualConsistencyDelay());
 
         // update metadata
         Map<String, String> userMetaData = new HashMap<>();
@@ -209,8 +208,8 @@ public class PutObjectTests extends S3TestBase {
         var put1 = bucket.putObject(key, "aaaaaaaaaaa");
         var info1 = bucket.headObjectWithETag(key, put1.eTag(), target.eventualConsistencyDelay());
 
-        // wait a bit
-        Thread.sleep(Duration.ofSeconds(2));
+        // LastModified has a resolution of one second
+        bucket.awaitServerTimeAfter(info1.lastModified(), target.eventualConsistencyDelay());
 
         // update object content
         var put2 = bucket.putObject(key, "bbbbbbbbbbbbbbbbb");
@@ -18,7 +18,15 @@
  */
 package com.datadobi.s3test;
 
+import com.datadobi.s3test.results.LatencySummary;
+import com.datadobi.s3test.results.ResultsCache;
+import com.datadobi.s3test.results.Shard;
+import com.datadobi.s3test.results.TestResult;
+import com.datadobi.s3test.results.TestRun;
 import com.datadobi.s3test.s3.*;
+import com.datadobi.s3test.server.FaultInjectionProxy;
+import com.datadobi.s3test.server.ReplayServer;
+import com.datadobi.s3test.server.ServiceUris;
 import com.google.common.collect.ImmutableSet;
 import org.junit.runner.Description;
 import org.junit.runner.JUnitCore;
@@ -35,16 +43,38 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class RunTests {
+    private static final Path DEFAULT_CACHE_PATH = Path.of(".s3test-cache");
+    /**
+     * Options that differ per target when running against several targets.
+     */
+    private static final Set<String> TARGET_OPTIONS = Set.of("-c", "--config", "-l", "--log", "--record", "--results");
+
     public static void main(String[] args) throws InitializationError, IOException {
         List<Pattern> include = new ArrayList<>();
         List<Pattern> exclude = new ArrayList<>();
         Path configPath = null;
         Path logPath = null;
+        long logBodyLimit = WireLogger.DEFAULT_MAX_BODY_BYTES;
+        LogFormat logFormat = LogFormat.DEFAULT;
+        Path recordPath = null;
+        Path replayPath = null;
+        Shard shard = null;
+        Path durationsPath = null;
+        Path resultsPath = null;
+        Path cachePath = null;
+        ResultsCache.Mode cacheMode = null;
+        List<String> sharedOptions = new ArrayList<>();
 
         int i = 0;
         for (; i < args.length; i++) {
@@ -52,25 +82,70 @@ public class RunTests {
             if (!arg.startsWith("-")) {
                 break;
             }
+            int optionStart = i;
 
             switch (arg) {
                 case "-c", "--config" -> configPath = Path.of(args[++i]);
                 case "-e", "--exclude" -> exclude.add(Pattern.compile(args[++i], Pattern.CASE_INSENSITIVE));
                 case "-i", "--include" -> include.add(Pattern.compile(args[++i], Pattern.CASE_INSENSITIVE));
                 case "-l", "--log" -> logPath = Path.of(args[++i]);
+                case "--log-body-limit" -> logBodyLimit = Long.parseLong(args[++i]);
+                case "--log-format" -> logFormat = LogFormat.fromString(args[++i]);
+                case "--record" -> recordPath = Path.of(args[++i]);
+                case "--replay" -> replayPath = Path.of(args[++i]);
+                case "--shard" -> shard = Shard.parse(args[++i]);
+                case "--durations" -> durationsPath = Path.of(args[++i]);
+                case "--results" -> resultsPath = Path.of(args[++i]);
+                case "--cache" -> cachePath = Path.of(args[++i]);
+                case "--only-failed" -> cacheMode = ResultsCache.Mode.ONLY_FAILED;
+                case "--skip-unchanged-passed" -> cacheMode = ResultsCache.Mode.SKIP_UNCHANGED_PASSED;
+            }
+            if (!TARGET_OPTIONS.contains(arg)) {
+                sharedOptions.addAll(Arrays.asList(args).subList(optionStart, i + 1));
             }
         }
 
-        if (i == args.length) {
-            System.err.println("Usage: RunTests [options] S3_URI");
+        if (i == args.length && replayPath == null) {
+            System.err.println("Usage: RunTests [options] [CONFIG_PATH=]S3_URI...");
             System.err.println("Options:");
             System.err.println("  -c --config PATH        Load additional configuration from PATH");
             System.err.println("  -e --exclude PATTERN    Exclude tests matching PATTERN");
             System.err.println("  -i --include PATTERN    Include tests matching PATTERN");
             System.err.println("  -l --log PATH           Write test error output and HTTP wire trace to PATH");
+            System.err.println("  --log-body-limit BYTES  Truncate logged message bodies after BYTES (-1 for no limit)");
+            System.err.println("  --log-format FORMAT     HTTP log format: wire (default), jsonl or all; defaults to S3TEST_WIRELOG_FORMAT");
+            System.err.println("  --record PATH           Record all HTTP exchanges to PATH for later replay");
+            System.err.println("  --replay PATH           Run against a local server replaying the recording in PATH");
+            System.err.println("                          instead of S3_URI");
+            System.err.println("  --shard INDEX/COUNT     Only run shard INDEX (1-based) of COUNT deterministic shards");
+            System.err.println("  --durations PATH        Balance shards using the test durations in results file PATH");
+            System.err.println("  --results PATH          Write machine readable test results to PATH");
+            System.err.println("  --cache PATH            Cache test results in PATH (default " + DEFAULT_CACHE_PATH + ")");
+            System.err.println("  --only-failed           Only run tests that failed or did not run before");
+            System.err.println("  --skip-unchanged-passed Skip tests that passed before, unless their test class changed");
+            System.err.println();
+            System.err.println("Several targets are tested concurrently, each in its own JVM, and compared in a matrix.");
+            System.err.println("Prefix a target with CONFIG_PATH= to use a different configuration for it. --results,");
+            System.err.println("--log and --record then name directories with a subdirectory or file per target.");
             System.exit(1);
         }
 
+        List<TargetMatrix.Target> targets = new ArrayList<>();
+        for (int t = i; t < args.length; t++) {
+            targets.add(TargetMatrix.Target.parse(t - i, args[t], configPath));
+        }
+
+        if (targets.size() > 1) {
+            if (replayPath != null) {
+                System.err.println("--replay cannot be combined with several targets");
+                System.exit(1);
+            }
+            Path matrixResults = resultsPath != null ? resultsPath : Files.createTempDirectory("s3test-matrix");
+            System.exit(new TargetMatrix(targets, sharedOptions, matrixResults, logPath, recordPath).run());
+        } else if (!targets.isEmpty()) {
+            configPath = targets.getFirst().configPath();
+        }
+
         Config config;
         if (configPath != null) {
             config = Config.loadFromToml(configPath);
@@ -78,10 +153,35 @@ public class RunTests {
             config = Config.AWS_CONFIG;
         }
 
-        var target = ServiceDefinition.fromURI(args[i]);
+        ReplayServer replayServer = null;
+        ServiceDefinition target;
+        if (replayPath != null) {
+            replayServer = new ReplayServer(replayPath);
+            replayServer.start();
+            target = ServiceDefinition.fromURI(replayServer.endpoint());
+        } else {
+            target = ServiceUris.fromURI(targets.getFirst().uri());
+        }
 
+        target = config.applyTo(target);
+
+        ResultsCache cache = null;
+        if (cachePath != null || cacheMode != null) {
+            // Probe the server directly, not through the fault injection proxy
+            String endpoint = replayPath != null ? "replay:" + replayPath.toAbsolutePath() : target.endpoint().toString();
+            cache = ResultsCache.open(cachePath != null ? cachePath : DEFAULT_CACHE_PATH, target, endpoint, config.faults().toString());
+        }
 
-        target = target.toBuilder().quirks(config.quirks()).build();
+        FaultInjectionProxy faultProxy = null;
+        if (config.faults().isEnabled()) {
+            if (target.useEncryption() && config.faults().requiresPlainHttp()) {
+                System.err.println("Slow down and truncate faults cannot be injected into HTTPS traffic, use an http:// endpoint");
+                System.exit(1);
+            }
+            faultProxy = new FaultInjectionProxy(config.faults());
+            faultProxy.start();
+            target = target.toBuilder().proxyEndpoint(faultProxy.endpoint()).build();
+        }
 
         S3TestBase.DEFAULT_SERVICE = target;
 
@@ -93,6 +193,12 @@ public class RunTests {
                 System.out.println("  " + quirk);
             }
         }
+        if (faultProxy != null) {
+            System.out.println("Faults: " + config.faults());
+        }
+        if (shard != null) {
+            System.out.println("Shard: " + shard);
+        }
         System.out.println();
 
         List<Class<?>> classes = new ArrayList<>();
@@ -109,12 +215,77 @@ public class RunTests {
         classes.add(PrefixDelimiterTests.class);
         classes.add(PutObjectTests.class);
 
+        Map<String, Class<?>> testClasses = new LinkedHashMap<>();
+        for (Class<?> c : classes) {
+            testClasses.put(c.getName(), c);
+        }
+
+        Set<String> selectedTests = null;
+        if (shard != null || cacheMode != null) {
+            Map<String, Class<?>> testIds = new LinkedHashMap<>();
+            for (Class<?> c : classes) {
+                for (Description test : new BlockJUnit4ClassRunner(c).getDescription().getChildren()) {
+                    if (isSelected(test.getMethodName(), include, exclude)) {
+                        testIds.put(c.getName() + "#" + test.getMethodName(), c);
+                    }
+                }
+            }
+
+            // Shards are assigned from the full list so that every machine agrees, whatever its local cache holds
+            Set<String> shardTests = testIds.keySet();
+            if (shard != null) {
+                if (!target.createBucket()) {
+                    System.err.println("Warning: all shards share bucket " + target.bucket() + "; omit the bucket from S3_URI to give each shard its own");
+                }
+
+                Map<String, Double> durations = durationsPath != null ? TestRun.read(durationsPath).durations() : Map.of();
+                shardTests = shard.select(testIds.keySet(), durations);
+                System.out.println("Running " + shardTests.size() + " of " + testIds.size() + " tests in shard " + shard);
+            }
+
+            selectedTests = new LinkedHashSet<>();
+            for (String testId : shardTests) {
+                if (cacheMode == null || cache.shouldRun(testIds.get(testId), testId, cacheMode)) {
+                    selectedTests.add(testId);
+                }
+            }
+            if (cacheMode != null) {
+                System.out.println("Results cache: " + cache.file() + " (" + cache.size() + " results), " + selectedTests.size() + " tests to run");
+            }
+            System.out.println();
+        }
+        Set<String> runTests = selectedTests;
+
         if (logPath != null) {
-            S3TestBase.WIRE_LOGGER = new WireLogger(logPath);
+            S3TestBase.WIRE_LOGGER = new WireLogger(logFormat.wire() ? logPath : null, WireLogger.DEFAULT_COMPRESS, logBodyLimit);
+
+            int exchangeBodyLimit = logBodyLimit < 0 || logBodyLimit > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) logBodyLimit;
+            S3TestBase.EXCHANGE_LOG = new HttpExchangeLog(logFormat.jsonl() ? logPath : null, "http.jsonl", exchangeBodyLimit);
+            if (S3TestBase.EXCHANGE_LOG.isEnabled()) {
+                S3TestBase.INTERCEPTORS.add(S3TestBase.EXCHANGE_LOG.interceptor());
+            }
         }
 
+        HttpExchangeLog recorder = null;
+        if (recordPath != null) {
+            // Recordings need complete bodies, and cover setup and teardown of each test
+            recorder = new HttpExchangeLog(recordPath, ReplayServer.RECORDING_FILE, Integer.MAX_VALUE);
+            S3TestBase.INTERCEPTORS.add(recorder.interceptor());
+        }
+
+        LatencyInterceptor latency = new LatencyInterceptor();
+        if (resultsPath != null) {
+            S3TestBase.INTERCEPTORS.add(latency);
+        }
+
+        String started = Instant.now().toString();
         JUnitCore junit = new JUnitCore();
         junit.addListener(new TextListener(logPath));
+        ResultsListener results = new ResultsListener();
+        junit.addListener(results);
+        if (recorder != null || replayServer != null) {
+            junit.addListener(new RecordReplayListener(recorder, replayServer));
+        }
 
         for (Class<?> c : classes) {
             BlockJUnit4ClassRunner runner = new BlockJUnit4ClassRunner(c);
@@ -134,12 +305,13 @@ public class RunTests {
                             return false;
                         }
 
-                        return true;
+                        // Tests of other shards and cached results are skipped silently
+                        return runTests == null || runTests.contains(description.getClassName() + "#" + methodName);
                     }
 
                     @Override
                     public String describe() {
-                        return "Name filter";
+                        return "Name, shard and cache filter";
                     }
                 });
                 junit.run(runner);
@@ -147,6 +319,101 @@ public class RunTests {
                 System.out.println("Skipping " + runner.getDescription());
             }
         }
+
+        if (cache != null) {
+            cache.update(testClasses, results.results());
+        }
+
+        if (resultsPath != null) {
+            Map<String, LatencySummary> latencies = new LinkedHashMap<>();
+            latency.latencies().forEach((operation, operationLatency) -> latencies.put(operation, LatencySummary.of(operationLatency)));
+            new TestRun(target.host(), shard == null ? null : shard.toString(), started, results.results(), latencies).write(resultsPath);
+        }
+
+        if (replayServer != null) {
+            replayServer.close();
+        }
+
+        if (faultProxy != null) {
+            System.out.println();
+            System.out.println("Injected faults: " + faultProxy.summary());
+            faultProxy.close();
+        }
+    }
+
+    private static boolean isSelected(String methodName, List<Pattern> include, List<Pattern> exclude) {
+        return exclude.stream().noneMatch(e -> e.matcher(methodName).matches())
+                && (include.isEmpty() || include.stream().anyMatch(i -> i.matcher(methodName).matches()));
+    }
+
+    private static class ResultsListener extends RunListener {
+        private final List<TestResult> results = new ArrayList<>();
+        private long startNanos;
+        private @Nullable Failure failure;
+        private boolean skipped;
+
+        public List<TestResult> results() {
+            return results;
+        }
+
+        @Override
+        public void testStarted(Description description) {
+            startNanos = System.nanoTime();
+            failure = null;
+            skipped = false;
+        }
+
+        @Override
+        public void testFailure(Failure failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public void testAssumptionFailure(Failure failure) {
+            this.failure = failure;
+            skipped = true;
+        }
+
+        @Override
+        public void testIgnored(Description description) {
+            // Ignored tests are never started
+            results.add(new TestResult(description.getClassName(), description.getMethodName(), TestResult.Status.SKIPPED, 0, null));
+        }
+
+        @Override
+        public void testFinished(Description description) {
+            double durationMs = (System.nanoTime() - startNanos) / 1e6;
+            TestResult.Status status = skipped ? TestResult.Status.SKIPPED : failure != null ? TestResult.Status.FAILED : TestResult.Status.PASSED;
+            String message = failure == null ? null : TextListener.getShortFailureMessage(failure);
+            results.add(new TestResult(description.getClassName(), description.getMethodName(), status, durationMs, message));
+        }
+    }
+
+    private static class RecordReplayListener extends RunListener {
+        private final @Nullable HttpExchangeLog recorder;
+        private final @Nullable ReplayServer replayServer;
+
+        public RecordReplayListener(@Nullable HttpExchangeLog recorder, @Nullable ReplayServer replayServer) {
+            this.recorder = recorder;
+            this.replayServer = replayServer;
+        }
+
+        @Override
+        public void testStarted(Description description) throws IOException {
+            if (replayServer != null) {
+                replayServer.load(description);
+            }
+            if (recorder != null) {
+                recorder.start(description);
+            }
+        }
+
+        @Override
+        public void testFinished(Description description) throws IOException {
+            if (recorder != null) {
+                recorder.stop();
+            }
+        }
     }
 
     private static class TextListener extends RunListener {
@@ -0,0 +1,265 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.results.LatencySummary;
+import com.datadobi.s3test.results.TestResult;
+import com.datadobi.s3test.results.TestRun;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the test suite against several targets concurrently and compares the outcomes in a test by target matrix.
+ * <p>
+ * Every target runs in a child JVM of its own, since the test classes keep the target, loggers and interceptors in
+ * static fields. Each child writes a results file including the latency of its S3 operations; the matrix is built
+ * from those files once all children have finished.
+ */
+class TargetMatrix {
+    /**
+     * @param label      short name of the target, used as column header and for per-target files
+     * @param configPath configuration of this target, {@code null} for the default configuration
+     */
+    record Target(String label, @Nullable Path configPath, String uri) {
+        /**
+         * Parses a target argument of the form {@code [CONFIG_PATH=]S3_URI}.
+         */
+        static Target parse(int index, String arg, @Nullable Path defaultConfigPath) {
+            Path configPath = defaultConfigPath;
+            String uri = arg;
+            int scheme = arg.indexOf("://");
+            int separator = arg.indexOf('=');
+            if (separator > 0 && (scheme < 0 || separator < scheme)) {
+                configPath = Path.of(arg.substring(0, separator));
+                uri = arg.substring(separator + 1);
+            }
+
+            String host = URI.create(uri).getHost();
+            String label = (index + 1) + "-" + (host == null ? "target" : host).replaceAll("[^A-Za-z0-9.-]", "_");
+            return new Target(label, configPath, uri);
+        }
+    }
+
+    private final List<Target> targets;
+    private final List<String> options;
+    private final Path resultsPath;
+    private final @Nullable Path logPath;
+    private final @Nullable Path recordPath;
+
+    /**
+     * @param options     options passed unchanged to every child
+     * @param resultsPath directory for the per-target results files
+     * @param logPath     directory for the per-target logs, if logging is enabled
+     * @param recordPath  directory for the per-target recordings, if recording is enabled
+     */
+    TargetMatrix(List<Target> targets, List<String> options, Path resultsPath, @Nullable Path logPath, @Nullable Path recordPath) {
+        this.targets = targets;
+        this.options = options;
+        this.resultsPath = resultsPath;
+        this.logPath = logPath;
+        this.recordPath = recordPath;
+    }
+
+    /**
+     * @return the process exit code; non-zero if any target did not produce results
+     */
+    int run() throws IOException {
+        Files.createDirectories(resultsPath);
+        System.out.println("Running against " + targets.size() + " targets, results in " + resultsPath);
+
+        Map<Target, Integer> exitCodes = new HashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Target target : targets) {
+                executor.submit(() -> {
+                    int exitCode;
+                    try {
+                        exitCode = runChild(target);
+                    } catch (IOException e) {
+                        System.out.println("[" + target.label() + "] Could not start: " + e.getMessage());
+                        exitCode = -1;
+                    }
+                    synchronized (exitCodes) {
+                        exitCodes.put(target, exitCode);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        Map<Target, TestRun> runs = new HashMap<>();
+        for (Target target : targets) {
+            Path results = resultsFile(target);
+            if (Files.exists(results)) {
+                runs.put(target, TestRun.read(results));
+            } else {
+                System.out.println(target.label() + " produced no results, exit code " + exitCodes.get(target));
+            }
+        }
+
+        System.out.println();
+        printMatrix(runs);
+        printLatencies(runs);
+        return runs.size() == targets.size() ? 0 : 1;
+    }
+
+    private int runChild(Target target) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            // A native executable has no JVM to configure; it is started with just the RunTests options
+            command.add(ProcessHandle.current().info().command().orElseThrow());
+        } else {
+            command.add(ProcessHandle.current().info().command().orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+            for (String jvmArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                // A debugger can only be attached to one process
+                if (!jvmArgument.startsWith("-agentlib:jdwp")) {
+                    command.add(jvmArgument);
+                }
+            }
+            command.add("-Dstdout.encoding=UTF-8");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(RunTests.class.getName());
+        }
+        command.addAll(options);
+        if (target.configPath() != null) {
+            command.add("--config");
+            command.add(target.configPath().toString());
+        }
+        if (logPath != null) {
+            command.add("--log");
+            command.add(logPath.resolve(target.label()).toString());
+        }
+        if (recordPath != null) {
+            command.add("--record");
+            command.add(recordPath.resolve(target.label()).toString());
+        }
+        command.add("--results");
+        command.add(resultsFile(target).toString());
+        command.add(target.uri());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                synchronized (System.out) {
+                    System.out.println("[" + target.label() + "] " + line);
+                }
+            }
+        }
+        return process.waitFor();
+    }
+
+    private Path resultsFile(Target target) {
+        return resultsPath.resolve(target.label() + ".json");
+    }
+
+    private void printMatrix(Map<Target, TestRun> runs) {
+        List<Map<String, TestResult>> columns = new ArrayList<>();
+        TreeSet<String> testIds = new TreeSet<>();
+        for (Target target : targets) {
+            Map<String, TestResult> column = new HashMap<>();
+            TestRun run = runs.get(target);
+            if (run != null) {
+                for (TestResult test : run.tests()) {
+                    column.put(test.id(), test);
+                    testIds.add(test.id());
+                }
+            }
+            columns.add(column);
+        }
+
+        int nameWidth = Math.max(4, testIds.stream().mapToInt(id -> shortName(id).length()).max().orElse(0));
+        int cellWidth = Math.max(12, targets.stream().mapToInt(target -> target.label().length()).max().orElse(0));
+
+        StringBuilder header = new StringBuilder(String.format("  %-" + nameWidth + "s", "Test"));
+        for (Target target : targets) {
+            header.append("  ").append(String.format("%-" + cellWidth + "s", target.label()));
+        }
+        System.out.println(header);
+
+        int differing = 0;
+        for (String testId : testIds) {
+            StringBuilder row = new StringBuilder();
+            TreeSet<TestResult.Status> statuses = new TreeSet<>();
+            for (Map<String, TestResult> column : columns) {
+                TestResult result = column.get(testId);
+                row.append("  ").append(String.format("%-" + cellWidth + "s", format(result)));
+                if (result != null) {
+                    statuses.add(result.status());
+                }
+            }
+            boolean differs = statuses.size() > 1;
+            if (differs) {
+                differing++;
+            }
+            System.out.println((differs ? "≠ " : "  ") + String.format("%-" + nameWidth + "s", shortName(testId)) + row);
+        }
+
+        System.out.println();
+        System.out.println(differing + " of " + testIds.size() + " tests have different outcomes (≠)");
+    }
+
+    private void printLatencies(Map<Target, TestRun> runs) {
+        for (Target target : targets) {
+            TestRun run = runs.get(target);
+            if (run == null || run.latency() == null) {
+                continue;
+            }
+
+            System.out.println();
+            System.out.println("Latency " + target.label() + " (" + run.target() + ")");
+            for (Map.Entry<String, LatencySummary> operation : run.latency().entrySet()) {
+                System.out.printf("  %-28s %s%n", operation.getKey(), operation.getValue());
+            }
+        }
+    }
+
+    private static String shortName(String testId) {
+        return testId.substring(testId.lastIndexOf('.') + 1);
+    }
+
+    private static String format(@Nullable TestResult result) {
+        if (result == null) {
+            return "-";
+        }
+
+        String status = switch (result.status()) {
+            case PASSED -> "pass";
+            case FAILED -> "FAIL";
+            case SKIPPED -> "skip";
+        };
+        return status + String.format(Locale.ROOT, " %.2fs", result.durationMs() / 1000);
+    }
+}
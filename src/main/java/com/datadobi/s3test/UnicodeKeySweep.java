@@ -0,0 +1,449 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test;
+
+import com.datadobi.s3test.s3.Config;
+import com.datadobi.s3test.s3.RawS3Client;
+import com.datadobi.s3test.s3.S3;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.server.ServiceUris;
+import com.datadobi.s3test.util.InvalidUtf8Encoder;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Determines which code points, and which invalid UTF-8 sequences, a target accepts in object keys.
+ * <p>
+ * Many probes are packed into each key. A rejected key is split in halves until the rejected probes are isolated; a
+ * key that is stored but listed differently is retried with one probe per key in the next round. Every round is
+ * verified with a paged listing and cleaned up with DeleteObjects. The result is reported as ranges of probes with
+ * the same outcome.
+ */
+public class UnicodeKeySweep {
+    private static final int MAX_ATTEMPTS = 3;
+
+    private enum ProbeClass {
+        VALID("code point", false),
+        SURROGATE("surrogate", true),
+        OVERLONG_2("overlong 2-byte", true),
+        OVERLONG_3("overlong 3-byte", true),
+        OVERLONG_4("overlong 4-byte", true),
+        LONE_BYTE("lone byte", true),
+        ;
+
+        private final String label;
+        /**
+         * Invalid sequences are separated within a key, so that adjacent probes cannot combine into valid UTF-8.
+         */
+        private final boolean separated;
+
+        ProbeClass(String label, boolean separated) {
+            this.label = label;
+            this.separated = separated;
+        }
+
+        private String format(int value) {
+            return this == LONE_BYTE ? String.format("0x%02X", value) : String.format("U+%04X", value);
+        }
+    }
+
+    private enum Outcome {
+        ACCEPTED,
+        REJECTED,
+        MANGLED,
+        ERROR,
+    }
+
+    private record Probe(int id, ProbeClass probeClass, int value, byte[] bytes) {
+    }
+
+    private record StoredKey(int index, List<Probe> batch, byte[] suffix) {
+    }
+
+    private final RawS3Client client;
+    private final String bucket;
+    private final ExecutorService executor;
+    private final List<Probe> probes;
+    private final Outcome[] outcomes;
+    private final int[] statuses;
+    private final Map<Integer, byte[]> observed = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private UnicodeKeySweep(RawS3Client client, String bucket, ExecutorService executor, List<Probe> probes) {
+        this.client = client;
+        this.bucket = bucket;
+        this.executor = executor;
+        this.probes = probes;
+        this.outcomes = new Outcome[probes.size()];
+        this.statuses = new int[probes.size()];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path configPath = null;
+        int threads = 64;
+        int batchSize = 64;
+        boolean validOnly = false;
+
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                break;
+            }
+
+            switch (arg) {
+                case "-c", "--config" -> configPath = Path.of(args[++i]);
+                case "-t", "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "-b", "--batch" -> batchSize = Integer.parseInt(args[++i]);
+                case "--valid-only" -> validOnly = true;
+            }
+        }
+
+        if (i == args.length) {
+            System.err.println("Usage: UnicodeKeySweep [options] S3_URI");
+            System.err.println("Options:");
+            System.err.println("  -c --config PATH   Load additional configuration from PATH");
+            System.err.println("  -t --threads N     Number of concurrent requests (default 64)");
+            System.err.println("  -b --batch N       Number of probes packed into each key (default 64)");
+            System.err.println("  --valid-only       Only probe valid code points, skip invalid UTF-8");
+            System.exit(1);
+        }
+
+        Config config = configPath != null ? Config.loadFromToml(configPath) : Config.AWS_CONFIG;
+        ServiceDefinition target = config.applyTo(ServiceUris.fromURI(args[i]));
+        List<Probe> probes = probes(validOnly);
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (S3Client s3 = S3.createClient(target);
+             RawS3Client raw = new RawS3Client(target)) {
+            if (target.createBucket()) {
+                S3.createBucketAndWait(s3, target.bucket());
+            }
+
+            UnicodeKeySweep sweep = new UnicodeKeySweep(raw, target.bucket(), executor, probes);
+            try {
+                System.out.printf("Sweeping %d probes in keys of %d against %s%n", probes.size(), batchSize, target.host());
+                sweep.run(batchSize);
+            } finally {
+                executor.shutdownNow();
+                if (target.createBucket()) {
+                    S3.clearBucket(s3, target.bucket());
+                    S3.deleteBucket(s3, target.bucket());
+                }
+            }
+
+            System.out.println();
+            sweep.report();
+            System.out.printf("%n%d requests in %.1fs%n", sweep.requests.get(), (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private static List<Probe> probes(boolean validOnly) {
+        List<Probe> probes = new ArrayList<>();
+        for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+            if (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE) {
+                probes.add(new Probe(probes.size(), ProbeClass.VALID, codePoint, InvalidUtf8Encoder.utf8Encode(codePoint)));
+            }
+        }
+        if (validOnly) {
+            return probes;
+        }
+
+        for (int codePoint = Character.MIN_SURROGATE; codePoint <= Character.MAX_SURROGATE; codePoint++) {
+            probes.add(new Probe(probes.size(), ProbeClass.SURROGATE, codePoint, InvalidUtf8Encoder.utf8Encode(codePoint)));
+        }
+        for (int codePoint = 0; codePoint < 0x80; codePoint++) {
+            probes.add(new Probe(probes.size(), ProbeClass.OVERLONG_2, codePoint, InvalidUtf8Encoder.utf8Encode(codePoint, 2)));
+        }
+        for (int codePoint = 0; codePoint < 0x800; codePoint++) {
+            probes.add(new Probe(probes.size(), ProbeClass.OVERLONG_3, codePoint, InvalidUtf8Encoder.utf8Encode(codePoint, 3)));
+        }
+        for (int codePoint = 0; codePoint < 0x10000; codePoint++) {
+            probes.add(new Probe(probes.size(), ProbeClass.OVERLONG_4, codePoint, InvalidUtf8Encoder.utf8Encode(codePoint, 4)));
+        }
+        // Continuation bytes without a lead byte, lead bytes without continuation bytes, and bytes never used in UTF-8
+        for (int b = 0x80; b <= 0xFF; b++) {
+            probes.add(new Probe(probes.size(), ProbeClass.LONE_BYTE, b, new byte[]{(byte) b}));
+        }
+        return probes;
+    }
+
+    private void run(int batchSize) throws IOException, InterruptedException {
+        String run = "sweep-" + UUID.randomUUID() + "/";
+
+        List<List<Probe>> pending = new ArrayList<>();
+        for (int start = 0; start < probes.size(); start += batchSize) {
+            List<Probe> batch = probes.subList(start, Math.min(start + batchSize, probes.size()));
+            // Probe classes are not mixed within a key
+            for (ProbeClass probeClass : ProbeClass.values()) {
+                List<Probe> sameClass = batch.stream().filter(p -> p.probeClass() == probeClass).toList();
+                if (!sameClass.isEmpty()) {
+                    pending.add(sameClass);
+                }
+            }
+        }
+
+        for (int round = 0; !pending.isEmpty(); round++) {
+            byte[] prefix = (run + round + "/").getBytes(StandardCharsets.UTF_8);
+            List<StoredKey> stored = put(prefix, pending);
+            pending = verify(prefix, stored);
+            System.out.printf("Round %d: %d keys stored, %d keys to retry individually%n", round, stored.size(), pending.size());
+        }
+    }
+
+    /**
+     * Puts one key per batch. Rejected batches are split until the rejected probes are isolated.
+     */
+    private List<StoredKey> put(byte[] prefix, List<List<Probe>> batches) throws InterruptedException {
+        List<StoredKey> stored = new ArrayList<>();
+        AtomicInteger nextIndex = new AtomicInteger();
+
+        List<List<Probe>> wave = batches;
+        while (!wave.isEmpty()) {
+            List<Future<List<List<Probe>>>> futures = new ArrayList<>();
+            for (List<Probe> batch : wave) {
+                int index = nextIndex.getAndIncrement();
+                futures.add(executor.submit(() -> {
+                    byte[] suffix = suffix(batch);
+                    int status = putWithRetries(prefix, index, suffix);
+                    if (status / 100 == 2) {
+                        synchronized (stored) {
+                            stored.add(new StoredKey(index, batch, suffix));
+                        }
+                        return List.of();
+                    }
+
+                    if (batch.size() > 1 && status / 100 == 4) {
+                        int half = batch.size() / 2;
+                        return List.of(batch.subList(0, half), batch.subList(half, batch.size()));
+                    }
+
+                    for (Probe probe : batch) {
+                        outcomes[probe.id()] = status / 100 == 4 ? Outcome.REJECTED : Outcome.ERROR;
+                        statuses[probe.id()] = status;
+                    }
+                    return List.of();
+                }));
+            }
+
+            List<List<Probe>> next = new ArrayList<>();
+            for (Future<List<List<Probe>>> future : futures) {
+                try {
+                    next.addAll(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Sweep failed", e.getCause());
+                }
+            }
+            wave = next;
+        }
+        return stored;
+    }
+
+    /**
+     * @return the status of the last attempt, or -1 if no response was received
+     */
+    private int putWithRetries(byte[] prefix, int index, byte[] suffix) throws InterruptedException {
+        int status = -1;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                requests.incrementAndGet();
+                status = client.putObject(bucket, new byte[0], prefix, (index + "-").getBytes(StandardCharsets.US_ASCII), suffix).status();
+                if (status / 100 != 5) {
+                    return status;
+                }
+            } catch (IOException e) {
+                status = -1;
+            }
+            Thread.sleep(100L * attempt);
+        }
+        return status;
+    }
+
+    /**
+     * Lists the keys of a round, records the outcome of every stored batch that was listed unchanged and deletes the
+     * round's keys.
+     *
+     * @return single-probe batches for the probes of mangled batches
+     */
+    private List<List<Probe>> verify(byte[] prefix, List<StoredKey> stored) throws IOException, InterruptedException {
+        Map<Integer, byte[]> listed = new HashMap<>();
+        List<byte[]> toDelete = new ArrayList<>();
+
+        String continuationToken = null;
+        do {
+            requests.incrementAndGet();
+            RawS3Client.ListPage page = client.listObjectKeys(bucket, prefix, continuationToken);
+            for (byte[] key : page.keys()) {
+                toDelete.add(key);
+                int dash = indexOf(key, (byte) '-', prefix.length);
+                if (dash > prefix.length) {
+                    try {
+                        int index = Integer.parseInt(new String(key, prefix.length, dash - prefix.length, StandardCharsets.US_ASCII));
+                        listed.put(index, Arrays.copyOfRange(key, dash + 1, key.length));
+                    } catch (NumberFormatException e) {
+                        // Not one of ours, or the index itself was mangled
+                    }
+                }
+            }
+            continuationToken = page.nextContinuationToken();
+        } while (continuationToken != null);
+
+        List<List<Probe>> retry = new ArrayList<>();
+        for (StoredKey key : stored) {
+            byte[] actual = listed.get(key.index());
+            if (Arrays.equals(actual, key.suffix())) {
+                for (Probe probe : key.batch()) {
+                    outcomes[probe.id()] = Outcome.ACCEPTED;
+                }
+            } else if (key.batch().size() == 1) {
+                Probe probe = key.batch().get(0);
+                outcomes[probe.id()] = Outcome.MANGLED;
+                if (actual != null) {
+                    observed.put(probe.id(), actual);
+                }
+            } else {
+                for (Probe probe : key.batch()) {
+                    retry.add(List.of(probe));
+                }
+            }
+        }
+
+        delete(toDelete);
+        return retry;
+    }
+
+    private void delete(List<byte[]> keys) throws InterruptedException {
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int start = 0; start < keys.size(); start += 1000) {
+            List<byte[]> batch = keys.subList(start, Math.min(start + 1000, keys.size()));
+            futures.add(executor.submit(() -> {
+                requests.incrementAndGet();
+                return client.deleteObjects(bucket, batch);
+            }));
+        }
+
+        int failed = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                failed += future.get();
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            System.err.println("Could not delete " + failed + " keys");
+        }
+    }
+
+    private void report() {
+        System.out.printf("%-16s %-24s %s%n", "Class", "Range", "Outcome");
+        int start = 0;
+        for (int id = 1; id <= probes.size(); id++) {
+            if (id < probes.size() && sameRange(probes.get(start), probes.get(id))) {
+                continue;
+            }
+
+            Probe first = probes.get(start);
+            Probe last = probes.get(id - 1);
+            String range = first.probeClass().format(first.value());
+            if (last != first) {
+                range += ".." + last.probeClass().format(last.value());
+            }
+            System.out.printf("%-16s %-24s %s%n", first.probeClass().label, range, describe(first));
+            start = id;
+        }
+
+        Map<Outcome, Integer> totals = new HashMap<>();
+        for (Outcome outcome : outcomes) {
+            totals.merge(outcome == null ? Outcome.ERROR : outcome, 1, Integer::sum);
+        }
+        System.out.println();
+        for (Outcome outcome : Outcome.values()) {
+            System.out.printf("%-9s %8d%n", outcome.name().toLowerCase(Locale.ROOT), totals.getOrDefault(outcome, 0));
+        }
+    }
+
+    private boolean sameRange(Probe previous, Probe probe) {
+        return previous.probeClass() == probe.probeClass()
+                && probe.value() == probes.get(probe.id() - 1).value() + 1
+                && outcomes[previous.id()] == outcomes[probe.id()]
+                && statuses[previous.id()] == statuses[probe.id()];
+    }
+
+    private String describe(Probe probe) {
+        Outcome outcome = outcomes[probe.id()];
+        if (outcome == null) {
+            return "error (not verified)";
+        }
+        return switch (outcome) {
+            case ACCEPTED -> "accepted";
+            case REJECTED -> "rejected (" + statuses[probe.id()] + ")";
+            case ERROR -> statuses[probe.id()] == -1 ? "error (no response)" : "error (" + statuses[probe.id()] + ")";
+            case MANGLED -> {
+                byte[] actual = observed.get(probe.id());
+                yield actual == null
+                        ? "mangled, not listed"
+                        : "mangled, e.g. " + HexFormat.ofDelimiter(" ").formatHex(probe.bytes()) + " listed as " + describeBytes(actual);
+            }
+        };
+    }
+
+    private static String describeBytes(byte[] bytes) {
+        return bytes.length == 0 ? "nothing" : HexFormat.ofDelimiter(" ").formatHex(bytes);
+    }
+
+    private static byte[] suffix(List<Probe> batch) {
+        ByteArrayOutputStream suffix = new ByteArrayOutputStream();
+        for (Probe probe : batch) {
+            if (probe.probeClass().separated && suffix.size() > 0) {
+                suffix.write('_');
+            }
+            suffix.writeBytes(probe.bytes());
+        }
+        return suffix.toByteArray();
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.dataset;
+
+import com.datadobi.s3test.s3.S3Bucket;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Populates datasets in an existing bucket and reuses what previous runs left behind.
+ * <p>
+ * The manifest of a dataset is stored at {@code <name>.manifest.json}, outside the dataset prefix, so listings of the
+ * dataset do not include it. Objects are uploaded in chunks and the manifest is updated after every chunk, so an
+ * interrupted run resumes where it stopped.
+ */
+public class DatasetBuilder {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int CHUNK_SIZE = 10_000;
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final S3Bucket bucket;
+    private final Consumer<String> progress;
+
+    /**
+     * @param progress receives a line of text whenever a dataset is reused, regenerated, trimmed or has grown by a
+     *                 chunk, since populating a large dataset can take hours
+     */
+    public DatasetBuilder(S3Bucket bucket, Consumer<String> progress) {
+        this.bucket = bucket;
+        this.progress = progress;
+    }
+
+    public static String manifestKey(String name) {
+        return name + ".manifest.json";
+    }
+
+    /**
+     * Makes the bucket contain exactly the objects described by {@code spec}.
+     * <p>
+     * If the stored manifest has the same fingerprint, only missing objects are uploaded and surplus objects are
+     * deleted. Otherwise the dataset is deleted and generated from scratch.
+     *
+     * @return the manifest describing the dataset
+     */
+    public DatasetManifest ensure(DatasetSpec spec) {
+        DatasetManifest manifest = readManifest(spec.name());
+
+        if (manifest != null && manifest.fingerprint().equals(spec.fingerprint())) {
+            if (manifest.count() == spec.count()) {
+                progress.accept("Reusing dataset " + spec.name() + " with " + manifest.count() + " objects");
+                return manifest;
+            }
+        } else {
+            if (manifest != null) {
+                progress.accept("Dataset " + spec.name() + " was generated from a different spec, regenerating");
+            }
+            deletePrefix(spec.prefix());
+            manifest = writeManifest(spec, 0, 0);
+        }
+
+        if (manifest.count() > spec.count()) {
+            progress.accept("Shrinking dataset " + spec.name() + " from " + manifest.count() + " to " + spec.count() + " objects");
+            // Record the smaller count first so an interrupted trim never leaves objects the manifest does not cover
+            long totalBytes = manifest.totalBytes();
+            for (long i = spec.count(); i < manifest.count(); i++) {
+                totalBytes -= spec.objectSize(i);
+            }
+            long previousCount = manifest.count();
+            manifest = writeManifest(spec, spec.count(), totalBytes);
+            deleteRange(spec, spec.count(), previousCount);
+            return manifest;
+        }
+
+        while (manifest.count() < spec.count()) {
+            long start = manifest.count();
+            int chunk = (int) Math.min(CHUNK_SIZE, spec.count() - start);
+
+            long chunkBytes = 0;
+            for (int i = 0; i < chunk; i++) {
+                chunkBytes += spec.objectSize(start + i);
+            }
+            bucket.putObjects(chunk, i -> spec.key(start + i), i -> spec.content(start + i));
+
+            manifest = writeManifest(spec, start + chunk, manifest.totalBytes() + chunkBytes);
+            progress.accept("Dataset " + spec.name() + ": " + manifest.count() + "/" + spec.count() + " objects");
+        }
+        return manifest;
+    }
+
+    /**
+     * Deletes all objects of a dataset and its manifest.
+     */
+    public void delete(DatasetSpec spec) {
+        deletePrefix(spec.prefix());
+        bucket.deleteObject(manifestKey(spec.name()));
+    }
+
+    public @Nullable DatasetManifest readManifest(String name) {
+        try {
+            return MAPPER.readValue(bucket.getObjectContent(manifestKey(name)), DatasetManifest.class);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read manifest of dataset " + name, e);
+        }
+    }
+
+    private DatasetManifest writeManifest(DatasetSpec spec, long count, long totalBytes) {
+        DatasetManifest manifest = new DatasetManifest(spec.name(), spec.fingerprint(), count, totalBytes, Instant.now().toString());
+        try {
+            bucket.putObject(manifestKey(spec.name()), MAPPER.writeValueAsBytes(manifest));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return manifest;
+    }
+
+    private void deleteRange(DatasetSpec spec, long from, long to) {
+        for (long start = from; start < to; start += DELETE_BATCH_SIZE) {
+            int batch = (int) Math.min(DELETE_BATCH_SIZE, to - start);
+            String[] keys = new String[batch];
+            for (int i = 0; i < batch; i++) {
+                keys[i] = spec.key(start + i);
+            }
+            bucket.deleteObjects(keys);
+        }
+    }
+
+    private void deletePrefix(String prefix) {
+        String continuationToken = null;
+        do {
+            String token = continuationToken;
+            ListObjectsV2Response response = bucket.listObjectsV2(r -> r.prefix(prefix).continuationToken(token));
+            String[] keys = response.contents().stream().map(S3Object::key).toArray(String[]::new);
+            if (keys.length > 0) {
+                bucket.deleteObjects(keys);
+            }
+            continuationToken = response.nextContinuationToken();
+        } while (continuationToken != null);
+    }
+}
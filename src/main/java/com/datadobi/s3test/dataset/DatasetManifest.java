@@ -0,0 +1,31 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.dataset;
+
+/**
+ * Describes the objects of a dataset that are known to exist. Stored as JSON next to the dataset.
+ *
+ * @param name        name of the dataset
+ * @param fingerprint {@link DatasetSpec#fingerprint()} of the spec the objects were generated from
+ * @param count       number of objects, always the indexes {@code 0..count-1}
+ * @param totalBytes  total size of these objects
+ * @param updated     ISO-8601 time of the last change
+ */
+public record DatasetManifest(String name, String fingerprint, long count, long totalBytes, String updated) {
+}
@@ -0,0 +1,211 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.dataset;
+
+import io.github.wasabithumb.jtoml.JToml;
+import io.github.wasabithumb.jtoml.value.TomlValue;
+import io.github.wasabithumb.jtoml.value.primitive.TomlPrimitive;
+import io.github.wasabithumb.jtoml.value.table.TomlTable;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Declarative description of a dataset: a set of generated objects stored below {@code <name>/} in a bucket.
+ * <p>
+ * Keys, sizes and contents are derived from the object index and the seed only, so the same spec always produces the
+ * same objects and a partially populated dataset can be completed later.
+ *
+ * @param name                name of the dataset, also the key prefix
+ * @param keyPattern          {@link String#format} pattern applied to the object index, e.g. {@code dir-%03d/%08d}
+ * @param depth               number of directory levels above the objects, 0 for a flat dataset
+ * @param fanout              number of subdirectories per directory
+ * @param objectsPerDirectory number of consecutive objects placed in each leaf directory
+ * @param count               number of objects
+ * @param sizes               distribution of the object sizes
+ * @param size                fixed, minimum or median object size in bytes depending on {@code sizes}
+ * @param maxSize             maximum object size in bytes for {@code UNIFORM} and {@code LOGNORMAL}
+ * @param seed                seed for sizes and contents
+ */
+public record DatasetSpec(
+        String name,
+        String keyPattern,
+        int depth,
+        int fanout,
+        long objectsPerDirectory,
+        long count,
+        SizeDistribution sizes,
+        long size,
+        long maxSize,
+        long seed
+) {
+    public enum SizeDistribution {
+        FIXED,
+        UNIFORM,
+        /**
+         * Log-normal around {@code size} with a long tail up to {@code maxSize}; resembles file system contents.
+         */
+        LOGNORMAL,
+        ;
+
+        public static SizeDistribution fromString(String value) {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    public String prefix() {
+        return name + "/";
+    }
+
+    /**
+     * The key of an object. In a hierarchical dataset, leaf directory {@code index / objectsPerDirectory} is written
+     * as {@code depth} digits in base {@code fanout}, one digit per level, so consecutive objects share directories.
+     */
+    public String key(long index) {
+        StringBuilder key = new StringBuilder(prefix());
+        if (depth > 0) {
+            long directory = index / Math.max(1, objectsPerDirectory);
+            long[] digits = new long[depth];
+            for (int level = depth - 1; level >= 0; level--) {
+                digits[level] = directory % fanout;
+                directory /= fanout;
+            }
+            for (long digit : digits) {
+                key.append(digit).append('/');
+            }
+        }
+        return key.append(String.format(Locale.ROOT, keyPattern, index)).toString();
+    }
+
+    public long objectSize(long index) {
+        SplittableRandom random = random(index);
+        long upper = Math.max(size, maxSize);
+        return switch (sizes) {
+            case FIXED -> size;
+            case UNIFORM -> size + (upper > size ? random.nextLong(upper - size + 1) : 0);
+            case LOGNORMAL -> Math.min(upper, Math.round(size * Math.exp(random.nextGaussian())));
+        };
+    }
+
+    /**
+     * Content of the object with the given index; ASCII so that its length in bytes equals {@link #objectSize(long)}.
+     */
+    public String content(long index) {
+        long length = objectSize(index);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Object " + index + " of " + name + " is too large: " + length);
+        }
+
+        // The size is drawn from the same sequence first, so skip it
+        SplittableRandom random = random(index);
+        random.nextLong();
+
+        StringBuilder content = new StringBuilder((int) length);
+        for (int i = 0; i < length; i++) {
+            content.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        }
+        return content.toString();
+    }
+
+    /**
+     * Identifies the generated objects independently of the name and count, so a dataset can be grown or shrunk
+     * without regenerating the objects it already contains.
+     */
+    public String fingerprint() {
+        String canonical = String.join("\n", keyPattern, sizes.name(), Long.toString(size), Long.toString(maxSize), Long.toString(seed));
+        if (depth > 0) {
+            canonical += "\n" + depth + "\n" + fanout + "\n" + objectsPerDirectory;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private SplittableRandom random(long index) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+    }
+
+    /**
+     * Reads the {@code [[dataset]]} tables of a TOML file.
+     */
+    public static List<DatasetSpec> loadFromToml(Path path) {
+        var toml = JToml.jToml();
+        var doc = toml.read(path);
+
+        List<DatasetSpec> specs = new ArrayList<>();
+        var datasets = doc.get("dataset");
+        if (datasets != null && datasets.isArray()) {
+            datasets.asArray().forEach(item -> {
+                if (item.isTable()) {
+                    specs.add(fromTable(item.asTable()));
+                }
+            });
+        }
+        return specs;
+    }
+
+    private static DatasetSpec fromTable(TomlTable table) {
+        TomlPrimitive name = primitive(table, "name");
+        TomlPrimitive keyPattern = primitive(table, "key_pattern");
+        TomlPrimitive depth = primitive(table, "depth");
+        TomlPrimitive fanout = primitive(table, "fanout");
+        TomlPrimitive objectsPerDirectory = primitive(table, "objects_per_directory");
+        TomlPrimitive count = primitive(table, "count");
+        TomlPrimitive sizes = primitive(table, "sizes");
+        TomlPrimitive size = primitive(table, "size");
+        TomlPrimitive maxSize = primitive(table, "max_size");
+        TomlPrimitive seed = primitive(table, "seed");
+
+        if (name == null || count == null) {
+            throw new IllegalArgumentException("Datasets require a name and a count");
+        }
+
+        long objectSize = size == null ? 0 : size.asLong();
+        return new DatasetSpec(
+                name.asString(),
+                keyPattern == null ? "%08d" : keyPattern.asString(),
+                depth == null ? 0 : (int) depth.asLong(),
+                fanout == null ? 10 : (int) fanout.asLong(),
+                objectsPerDirectory == null ? 1 : objectsPerDirectory.asLong(),
+                count.asLong(),
+                sizes == null ? SizeDistribution.FIXED : SizeDistribution.fromString(sizes.asString()),
+                objectSize,
+                maxSize == null ? objectSize : maxSize.asLong(),
+                seed == null ? 0 : seed.asLong()
+        );
+    }
+
+    private static @Nullable TomlPrimitive primitive(TomlTable table, String key) {
+        TomlValue value = table.get(key);
+        return value != null && value.isPrimitive() ? value.asPrimitive() : null;
+    }
+}
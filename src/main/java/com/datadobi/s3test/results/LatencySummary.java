@@ -0,0 +1,42 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.results;
+
+import com.datadobi.s3test.util.LatencyRecorder;
+
+/**
+ * Latency distribution of one S3 operation during a test run, in milliseconds.
+ */
+public record LatencySummary(int count, double meanMs, double p50Ms, double p90Ms, double p99Ms, double maxMs) {
+    public static LatencySummary of(LatencyRecorder recorder) {
+        return new LatencySummary(
+                recorder.count(),
+                LatencyRecorder.millis(recorder.mean()),
+                LatencyRecorder.millis(recorder.percentile(50)),
+                LatencyRecorder.millis(recorder.percentile(90)),
+                LatencyRecorder.millis(recorder.percentile(99)),
+                LatencyRecorder.millis(recorder.max())
+        );
+    }
+
+    @Override
+    public String toString() {
+        return LatencyRecorder.summary(count, meanMs, p50Ms, p90Ms, p99Ms, maxMs);
+    }
+}
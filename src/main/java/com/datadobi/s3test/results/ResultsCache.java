@@ -0,0 +1,197 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.results;
+
+import com.datadobi.s3test.s3.RawS3Client;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local cache of test results, used to re-run only the tests whose outcome may have changed.
+ * <p>
+ * Results are kept per environment: the endpoint, the identifying headers the server returns, the quirks and the fault
+ * profile. Changing any of these starts a fresh cache file. Each result also records a hash of the bytecode of its test
+ * class, so edited tests are not mistaken for unchanged ones.
+ */
+public class ResultsCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultsCache.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public enum Mode {
+        /**
+         * Run the tests that failed last time and those without a cached result.
+         */
+        ONLY_FAILED,
+        /**
+         * Run all tests except those that passed last time and whose test class did not change since.
+         */
+        SKIP_UNCHANGED_PASSED,
+    }
+
+    /**
+     * @param classHash hash of the test class bytecode the result was obtained with
+     */
+    public record Entry(String classHash, TestResult result) {
+    }
+
+    /**
+     * Contents of a cache file.
+     *
+     * @param environment the inputs of the environment fingerprint, for reference
+     * @param tests       cached results by {@link TestResult#id()}
+     */
+    public record CacheFile(Map<String, String> environment, Map<String, Entry> tests) {
+    }
+
+    private final Path file;
+    private final Map<String, String> environment;
+    private final Map<String, Entry> tests;
+    private final Map<Class<?>, String> classHashes = new HashMap<>();
+
+    private ResultsCache(Path file, Map<String, String> environment, Map<String, Entry> tests) {
+        this.file = file;
+        this.environment = environment;
+        this.tests = tests;
+    }
+
+    /**
+     * Opens the cache for the environment of {@code target}, probing the server for its identifying headers.
+     *
+     * @param directory directory holding the cache files of all environments
+     * @param endpoint  stable name of the endpoint; the port of a local server may differ between runs
+     */
+    public static ResultsCache open(Path directory, ServiceDefinition target, String endpoint, String faults) throws IOException {
+        Map<String, String> environment = new TreeMap<>();
+        environment.put("endpoint", endpoint);
+        environment.put("quirks", target.quirks().stream().map(Enum::name).sorted().toList().toString());
+        environment.put("faults", faults);
+        environment.putAll(probe(target));
+
+        String fingerprint = sha256(environment.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        Path file = directory.resolve(fingerprint + ".json");
+        Map<String, Entry> tests = new TreeMap<>();
+        if (Files.exists(file)) {
+            tests.putAll(MAPPER.readValue(file.toFile(), CacheFile.class).tests());
+        }
+        return new ResultsCache(file, environment, tests);
+    }
+
+    /**
+     * Server identification: the {@code Server} header and the names of the {@code x-amz-*} headers of a ListBuckets
+     * response. Header values such as request ids change with every request, so only names are used.
+     */
+    private static Map<String, String> probe(ServiceDefinition target) {
+        try (RawS3Client client = new RawS3Client(target)) {
+            RawS3Client.Response response = client.listBuckets();
+            return Map.of(
+                    "server", response.headers().getOrDefault("Server", ""),
+                    "amzHeaders", response.headers().keySet().stream()
+                            .map(name -> name.toLowerCase(Locale.ROOT))
+                            .filter(name -> name.startsWith("x-amz-"))
+                            .sorted()
+                            .toList()
+                            .toString()
+            );
+        } catch (IOException e) {
+            LOG.warn("Could not probe {} for server headers", target.endpoint(), e);
+            return Map.of("server", "unreachable");
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int size() {
+        return tests.size();
+    }
+
+    public boolean shouldRun(Class<?> testClass, String testId, Mode mode) {
+        Entry entry = tests.get(testId);
+        if (entry == null) {
+            return true;
+        }
+
+        return switch (mode) {
+            case ONLY_FAILED -> entry.result().status() == TestResult.Status.FAILED;
+            case SKIP_UNCHANGED_PASSED -> entry.result().status() != TestResult.Status.PASSED || !entry.classHash().equals(classHash(testClass));
+        };
+    }
+
+    /**
+     * Records new results and writes the cache file. Results of tests that did not run are kept.
+     */
+    public void update(Map<String, Class<?>> testClasses, List<TestResult> results) throws IOException {
+        for (TestResult result : results) {
+            Class<?> testClass = testClasses.get(result.testClass());
+            if (testClass != null) {
+                tests.put(result.id(), new Entry(classHash(testClass), result));
+            }
+        }
+
+        Files.createDirectories(file.getParent());
+        MAPPER.writeValue(file.toFile(), new CacheFile(environment, tests));
+    }
+
+    /**
+     * Hash of the bytecode of a test class and its superclasses within this project, e.g. {@code S3TestBase}.
+     */
+    private String classHash(Class<?> testClass) {
+        return classHashes.computeIfAbsent(testClass, c -> {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (Class<?> k = c; k != null && k.getName().startsWith("com.datadobi."); k = k.getSuperclass()) {
+                    try (InputStream in = k.getResourceAsStream(k.getSimpleName() + ".class")) {
+                        if (in != null) {
+                            digest.update(in.readAllBytes());
+                        }
+                    }
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.results;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One of {@code count} deterministic partitions of the test methods, numbered from 1.
+ * <p>
+ * Every shard computes the complete assignment from the same inputs, so independent processes agree on it without
+ * coordination. Tests are assigned longest first to the shard with the least total duration so far. Tests without a
+ * known duration count as the median known duration.
+ */
+public record Shard(int index, int count) {
+    public Shard {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+        }
+    }
+
+    public static Shard parse(String value) {
+        String[] parts = value.split("/", 2);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Shard must be given as INDEX/COUNT, e.g. 1/4: " + value);
+        }
+        return new Shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
+
+    /**
+     * @param testIds   all test ids, see {@link TestResult#id()}
+     * @param durations known durations by test id, e.g. from a previous {@link TestRun}
+     * @return the ids of the tests assigned to this shard
+     */
+    public Set<String> select(Collection<String> testIds, Map<String, Double> durations) {
+        double defaultDuration = median(testIds.stream().map(durations::get).filter(d -> d != null).toList());
+
+        List<String> tests = new ArrayList<>(new HashSet<>(testIds));
+        Comparator<String> longestFirst = Comparator.comparing((String id) -> durations.getOrDefault(id, defaultDuration)).reversed();
+        tests.sort(longestFirst.thenComparing(Comparator.naturalOrder()));
+
+        double[] load = new double[count];
+        Set<String> selected = new HashSet<>();
+        for (String test : tests) {
+            int lightest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (load[shard] < load[lightest]) {
+                    lightest = shard;
+                }
+            }
+            load[lightest] += durations.getOrDefault(test, defaultDuration);
+            if (lightest == index - 1) {
+                selected.add(test);
+            }
+        }
+        return selected;
+    }
+
+    private static double median(List<Double> values) {
+        if (values.isEmpty()) {
+            return 1;
+        }
+        List<Double> sorted = values.stream().sorted().toList();
+        return sorted.get(sorted.size() / 2);
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.results;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of a single test method.
+ *
+ * @param testClass  fully qualified name of the test class
+ * @param method     name of the test method
+ * @param durationMs wall clock time of the test including setup and teardown
+ * @param message    first line of the failure or skip reason, if any
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TestResult(String testClass, String method, Status status, double durationMs, @Nullable String message) {
+    public enum Status {
+        PASSED,
+        FAILED,
+        SKIPPED,
+    }
+
+    /**
+     * Identifies the test across runs, as {@code class#method}.
+     */
+    @JsonIgnore
+    public String id() {
+        return testClass + "#" + method;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.results;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Machine readable results of a {@code RunTests} invocation, written with {@code --results}.
+ *
+ * @param target  host the tests ran against
+ * @param shard   the shard that ran, e.g. {@code 2/4}, or {@code null} if all tests ran
+ * @param started ISO-8601 start time
+ * @param latency latency of the S3 operations performed by the tests, by operation name
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TestRun(String target, @Nullable String shard, String started, List<TestResult> tests, @Nullable Map<String, LatencySummary> latency) {
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static TestRun read(Path path) throws IOException {
+        return MAPPER.readValue(path.toFile(), TestRun.class);
+    }
+
+    public void write(Path path) throws IOException {
+        MAPPER.writeValue(path.toFile(), this);
+    }
+
+    /**
+     * Durations of the tests in this run, keyed by {@link TestResult#id()}.
+     */
+    public Map<String, Double> durations() {
+        Map<String, Double> durations = new HashMap<>();
+        for (TestResult test : tests) {
+            durations.put(test.id(), test.durationMs());
+        }
+        return durations;
+    }
+
+    /**
+     * Combines the results of several shards. If a test occurs in more than one run, the last occurrence wins. Latency
+     * summaries cannot be combined and are dropped.
+     */
+    public static TestRun merge(List<TestRun> runs) {
+        Map<String, TestResult> tests = new LinkedHashMap<>();
+        String started = null;
+        for (TestRun run : runs) {
+            if (started == null || run.started().compareTo(started) < 0) {
+                started = run.started();
+            }
+            for (TestResult test : run.tests()) {
+                tests.put(test.id(), test);
+            }
+        }
+        return new TestRun(runs.isEmpty() ? "" : runs.get(0).target(), null, started == null ? "" : started, new ArrayList<>(tests.values()), null);
+    }
+}
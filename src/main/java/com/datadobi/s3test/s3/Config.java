@@ -20,16 +20,23 @@ package com.datadobi.s3test.s3;
 
 import com.google.common.collect.ImmutableSet;
 import io.github.wasabithumb.jtoml.JToml;
+import io.github.wasabithumb.jtoml.value.TomlValue;
 import io.github.wasabithumb.jtoml.value.primitive.TomlPrimitive;
+import io.github.wasabithumb.jtoml.value.table.TomlTable;
 
+import javax.annotation.Nullable;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.EnumSet;
 import java.util.Locale;
 
-public record Config(ImmutableSet<Quirk> quirks) {
+/**
+ * @param eventualConsistencyDelay how long tests wait for writes to become visible, or {@code null} for the default
+ */
+public record Config(ImmutableSet<Quirk> quirks, FaultProfile faults, @Nullable Duration eventualConsistencyDelay) {
     public static final Config AWS_CONFIG = new Config(ImmutableSet.of(
             Quirk.PUT_OBJECT_IF_NONE_MATCH_ETAG_NOT_SUPPORTED
-    ));
+    ), FaultProfile.NONE, null);
 
     public static Config loadFromToml(Path path) {
         var quirks = EnumSet.noneOf(Quirk.class);
@@ -47,6 +54,63 @@ public record Config(ImmutableSet<Quirk> quirks) {
             });
         }
 
-        return new Config(ImmutableSet.copyOf(quirks));
+        FaultProfile faults = FaultProfile.NONE;
+        var faultsValue = doc.get("faults");
+        if (faultsValue != null && faultsValue.isTable()) {
+            faults = loadFaults(faultsValue.asTable());
+        }
+
+        Duration eventualConsistencyDelay = null;
+        var delayValue = doc.get("eventual_consistency_delay_ms");
+        if (delayValue != null && delayValue.isPrimitive()) {
+            eventualConsistencyDelay = Duration.ofMillis(delayValue.asPrimitive().asLong());
+        }
+
+        return new Config(ImmutableSet.copyOf(quirks), faults, eventualConsistencyDelay);
+    }
+
+    /**
+     * Applies the settings of this configuration that describe the target server.
+     */
+    public ServiceDefinition applyTo(ServiceDefinition target) {
+        ServiceDefinition.Builder builder = target.toBuilder().quirks(quirks);
+        if (eventualConsistencyDelay != null) {
+            builder.eventualConsistencyDelay(eventualConsistencyDelay);
+        }
+        return builder.build();
+    }
+
+    private static FaultProfile loadFaults(TomlTable table) {
+        TomlPrimitive latency = primitive(table, "latency");
+        TomlPrimitive latencyMs = primitive(table, "latency_ms");
+        TomlPrimitive latencyDeviationMs = primitive(table, "latency_deviation_ms");
+        TomlPrimitive bandwidth = primitive(table, "bandwidth_kib_per_sec");
+        TomlPrimitive reset = primitive(table, "reset_probability");
+        TomlPrimitive slowDown = primitive(table, "slowdown_probability");
+        TomlPrimitive truncate = primitive(table, "truncate_probability");
+        TomlPrimitive seed = primitive(table, "seed");
+
+        FaultProfile.LatencyDistribution distribution;
+        if (latency != null) {
+            distribution = FaultProfile.LatencyDistribution.fromString(latency.asString());
+        } else {
+            distribution = latencyMs != null ? FaultProfile.LatencyDistribution.FIXED : FaultProfile.LatencyDistribution.NONE;
+        }
+
+        return new FaultProfile(
+                distribution,
+                Duration.ofMillis(latencyMs == null ? 0 : latencyMs.asLong()),
+                Duration.ofMillis(latencyDeviationMs == null ? 0 : latencyDeviationMs.asLong()),
+                bandwidth == null ? 0 : bandwidth.asLong() * 1024,
+                reset == null ? 0 : reset.asDouble(),
+                slowDown == null ? 0 : slowDown.asDouble(),
+                truncate == null ? 0 : truncate.asDouble(),
+                seed == null ? 0 : seed.asLong()
+        );
+    }
+
+    private static @Nullable TomlPrimitive primitive(TomlTable table, String key) {
+        TomlValue value = table.get(key);
+        return value != null && value.isPrimitive() ? value.asPrimitive() : null;
     }
 }
@@ -0,0 +1,110 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Faults injected by the {@link com.datadobi.s3test.server.FaultInjectionProxy} into the traffic between the S3 client
+ * and the target. Probabilities are evaluated independently for each request.
+ *
+ * @param latency              distribution of the delay added before each request is forwarded
+ * @param latencyMean          mean (or fixed) added delay
+ * @param latencyDeviation     standard deviation of the added delay, or half the range for {@code UNIFORM}
+ * @param bandwidthBytesPerSec per connection transfer rate limit in each direction, 0 for unlimited
+ * @param resetProbability     probability that the connection is reset instead of forwarding a request
+ * @param slowDownProbability  probability that a request is answered with {@code 503 SlowDown} instead of being forwarded
+ * @param truncateProbability  probability that a response body is cut off and the connection closed
+ * @param seed                 seed for the random generator, 0 for a different sequence on every run
+ */
+public record FaultProfile(
+        LatencyDistribution latency,
+        Duration latencyMean,
+        Duration latencyDeviation,
+        long bandwidthBytesPerSec,
+        double resetProbability,
+        double slowDownProbability,
+        double truncateProbability,
+        long seed
+) {
+    public static final FaultProfile NONE = new FaultProfile(LatencyDistribution.NONE, Duration.ZERO, Duration.ZERO, 0, 0, 0, 0, 0);
+
+    public enum LatencyDistribution {
+        NONE,
+        FIXED,
+        UNIFORM,
+        NORMAL,
+        /**
+         * Log-normal with the configured mean and standard deviation; models the long tail of WAN round trips.
+         */
+        LOGNORMAL,
+        EXPONENTIAL,
+        ;
+
+        public static LatencyDistribution fromString(String value) {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public boolean isEnabled() {
+        return latency != LatencyDistribution.NONE
+                || bandwidthBytesPerSec > 0
+                || resetProbability > 0
+                || slowDownProbability > 0
+                || truncateProbability > 0;
+    }
+
+    /**
+     * Whether the profile contains faults that need to parse requests and responses, which the proxy cannot do for
+     * HTTPS targets.
+     */
+    public boolean requiresPlainHttp() {
+        return slowDownProbability > 0 || truncateProbability > 0;
+    }
+
+    public Random newRandom() {
+        return seed == 0 ? new Random() : new Random(seed);
+    }
+
+    /**
+     * Draws the delay to add to a single request.
+     */
+    public Duration sampleLatency(Random random) {
+        double mean = latencyMean.toNanos();
+        double deviation = latencyDeviation.toNanos();
+        double nanos = switch (latency) {
+            case NONE -> 0;
+            case FIXED -> mean;
+            case UNIFORM -> mean - deviation + 2 * deviation * random.nextDouble();
+            case NORMAL -> mean + deviation * random.nextGaussian();
+            case LOGNORMAL -> {
+                if (mean <= 0) {
+                    yield 0;
+                }
+                double sigma2 = Math.log1p((deviation * deviation) / (mean * mean));
+                double mu = Math.log(mean) - sigma2 / 2;
+                yield Math.exp(mu + Math.sqrt(sigma2) * random.nextGaussian());
+            }
+            case EXPONENTIAL -> -mean * Math.log(1 - random.nextDouble());
+        };
+        return Duration.ofNanos((long) Math.max(0, nanos));
+    }
+}
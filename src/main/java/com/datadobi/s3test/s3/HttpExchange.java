@@ -0,0 +1,68 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single HTTP request/response exchange as observed by {@link HttpExchangeInterceptor}.
+ *
+ * @param operation          SDK operation name, e.g. {@code PutObject}
+ * @param bucket             bucket the request was addressed to, if any
+ * @param attempt            attempt number within the SDK call, starting at 1
+ * @param startTime          ISO-8601 time at which the request was handed to the HTTP client
+ * @param timeToResponseMs   time until the response status and headers were received
+ * @param totalMs            time until the response body was consumed
+ * @param status             HTTP status code, or -1 if no response was received
+ * @param error              description of the failure if the exchange did not complete
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record HttpExchange(
+        String operation,
+        @Nullable String bucket,
+        int attempt,
+        String startTime,
+        String method,
+        String uri,
+        Map<String, List<String>> requestHeaders,
+        @Nullable Body requestBody,
+        int status,
+        @Nullable Map<String, List<String>> responseHeaders,
+        @Nullable Body responseBody,
+        double timeToResponseMs,
+        double totalMs,
+        @Nullable String error
+) {
+    /**
+     * Summary of a message body.
+     *
+     * @param length    total number of bytes
+     * @param sha256    hex encoded SHA-256 digest of the complete body
+     * @param text      the first bytes of the body if they are valid UTF-8
+     * @param base64    the first bytes of the body otherwise
+     * @param truncated whether {@code text}/{@code base64} hold only a prefix of the body
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Body(long length, String sha256, @Nullable String text, @Nullable String base64, boolean truncated) {
+    }
+}
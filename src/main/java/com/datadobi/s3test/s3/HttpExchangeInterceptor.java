@@ -0,0 +1,332 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Execution interceptor that reports every HTTP attempt made by an {@link software.amazon.awssdk.services.s3.S3Client}
+ * as an {@link HttpExchange}.
+ * <p>
+ * Bodies are observed while the SDK streams them, so capturing does not read any body twice. An exchange is reported
+ * once its response body has been consumed; for streaming operations such as GetObject that is when the caller closes
+ * the response stream.
+ */
+public class HttpExchangeInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<AtomicReference<BodyCapture>> REQUEST_BODY = new ExecutionAttribute<>("s3test.RequestBodyCapture");
+    private static final ExecutionAttribute<Exchange> EXCHANGE = new ExecutionAttribute<>("s3test.HttpExchange");
+
+    private final Consumer<HttpExchange> listener;
+    private final int maxBodyBytes;
+
+    /**
+     * @param listener     receives completed exchanges, possibly from several threads concurrently
+     * @param maxBodyBytes number of leading body bytes to include in each exchange
+     */
+    public HttpExchangeInterceptor(Consumer<HttpExchange> listener, int maxBodyBytes) {
+        this.listener = listener;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    @Override
+    public Optional<RequestBody> modifyHttpContent(Context.ModifyHttpRequest context, ExecutionAttributes executionAttributes) {
+        Optional<RequestBody> requestBody = context.requestBody();
+        if (requestBody.isEmpty()) {
+            return requestBody;
+        }
+
+        RequestBody body = requestBody.get();
+        AtomicReference<BodyCapture> capture = new AtomicReference<>();
+        executionAttributes.putAttribute(REQUEST_BODY, capture);
+
+        ContentStreamProvider delegate = body.contentStreamProvider();
+        ContentStreamProvider capturing = () -> {
+            // Every (re)read of the body, e.g. for checksums or retries, starts a fresh capture
+            BodyCapture bodyCapture = new BodyCapture(maxBodyBytes);
+            capture.set(bodyCapture);
+            return new CapturingInputStream(delegate.newStream(), bodyCapture, null);
+        };
+
+        Optional<Long> contentLength = body.optionalContentLength();
+        if (contentLength.isPresent()) {
+            return Optional.of(RequestBody.fromContentProvider(capturing, contentLength.get(), body.contentType()));
+        } else {
+            return Optional.of(RequestBody.fromContentProvider(capturing, body.contentType()));
+        }
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        Exchange previous = executionAttributes.getAttribute(EXCHANGE);
+        if (previous != null) {
+            // The previous attempt is being retried
+            previous.complete("retried");
+        }
+
+        String operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        int attempt = previous == null ? 1 : previous.attempt + 1;
+        executionAttributes.putAttribute(EXCHANGE, new Exchange(
+                operation == null ? "unknown" : operation,
+                context.request().getValueForField("Bucket", String.class).orElse(null),
+                attempt,
+                context.httpRequest(),
+                executionAttributes.getAttribute(REQUEST_BODY)
+        ));
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        Exchange exchange = executionAttributes.getAttribute(EXCHANGE);
+        if (exchange != null) {
+            exchange.responseReceived(context.httpResponse());
+        }
+    }
+
+    @Override
+    public Optional<InputStream> modifyHttpResponseContent(Context.ModifyHttpResponse context, ExecutionAttributes executionAttributes) {
+        Optional<InputStream> responseBody = context.responseBody();
+        Exchange exchange = executionAttributes.getAttribute(EXCHANGE);
+        if (exchange == null || responseBody.isEmpty()) {
+            return responseBody;
+        }
+
+        BodyCapture capture = new BodyCapture(maxBodyBytes);
+        exchange.responseBody = capture;
+        return Optional.of(new CapturingInputStream(responseBody.get(), capture, exchange));
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        Exchange exchange = executionAttributes.getAttribute(EXCHANGE);
+        // Streaming response bodies are only consumed after the call returns; those complete on close
+        if (exchange != null && !(context.response() instanceof GetObjectResponse)) {
+            exchange.complete(null);
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        Exchange exchange = executionAttributes.getAttribute(EXCHANGE);
+        if (exchange != null) {
+            Throwable exception = context.exception();
+            exchange.complete(exception.getClass().getSimpleName() + ": " + exception.getMessage());
+        }
+    }
+
+    private class Exchange {
+        private final String operation;
+        private final @Nullable String bucket;
+        private final int attempt;
+        private final Instant startTime = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final SdkHttpRequest request;
+        private final @Nullable AtomicReference<BodyCapture> requestBody;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile @Nullable SdkHttpResponse response;
+        private volatile long responseNanos;
+        private volatile @Nullable BodyCapture responseBody;
+
+        private Exchange(String operation, @Nullable String bucket, int attempt, SdkHttpRequest request, @Nullable AtomicReference<BodyCapture> requestBody) {
+            this.operation = operation;
+            this.bucket = bucket;
+            this.attempt = attempt;
+            this.request = request;
+            this.requestBody = requestBody;
+        }
+
+        private void responseReceived(SdkHttpResponse response) {
+            this.responseNanos = System.nanoTime();
+            this.response = response;
+        }
+
+        private void complete(@Nullable String error) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            long endNanos = System.nanoTime();
+            SdkHttpResponse response = this.response;
+            BodyCapture requestCapture = requestBody == null ? null : requestBody.get();
+            BodyCapture responseCapture = responseBody;
+
+            listener.accept(new HttpExchange(
+                    operation,
+                    bucket,
+                    attempt,
+                    startTime.toString(),
+                    request.method().name(),
+                    request.getUri().toString(),
+                    Map.copyOf(request.headers()),
+                    requestCapture == null ? null : requestCapture.toBody(),
+                    response == null ? -1 : response.statusCode(),
+                    response == null ? null : Map.copyOf(response.headers()),
+                    responseCapture == null ? null : responseCapture.toBody(),
+                    response == null ? -1 : (responseNanos - startNanos) / 1e6,
+                    (endNanos - startNanos) / 1e6,
+                    error
+            ));
+        }
+    }
+
+    /**
+     * Accumulates the digest, length and leading bytes of a body as it is streamed.
+     */
+    private static class BodyCapture {
+        private final MessageDigest digest;
+        private final ByteArrayOutputStream head;
+        private final int maxHeadBytes;
+        private long length;
+
+        private BodyCapture(int maxHeadBytes) {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            this.maxHeadBytes = maxHeadBytes;
+            this.head = new ByteArrayOutputStream(Math.min(maxHeadBytes, 8192));
+        }
+
+        private synchronized void update(byte b) {
+            digest.update(b);
+            length++;
+            if (head.size() < maxHeadBytes) {
+                head.write(b);
+            }
+        }
+
+        private synchronized void update(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+            length += len;
+            int headBytes = Math.min(len, maxHeadBytes - head.size());
+            if (headBytes > 0) {
+                head.write(b, off, headBytes);
+            }
+        }
+
+        private synchronized HttpExchange.Body toBody() {
+            byte[] bytes = head.toByteArray();
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            boolean truncated = bytes.length < length;
+            try {
+                String text = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(bytes))
+                        .toString();
+                return new HttpExchange.Body(length, sha256, text, null, truncated);
+            } catch (CharacterCodingException e) {
+                return new HttpExchange.Body(length, sha256, null, Base64.getEncoder().encodeToString(bytes), truncated);
+            }
+        }
+    }
+
+    private static class CapturingInputStream extends FilterInputStream {
+        private final BodyCapture capture;
+        private final @Nullable Exchange exchange;
+
+        private CapturingInputStream(InputStream in, BodyCapture capture, @Nullable Exchange exchange) {
+            super(in);
+            this.capture = capture;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                endOfStream();
+            } else {
+                capture.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                endOfStream();
+            } else if (n > 0) {
+                capture.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            // Skipped bytes still need to be digested
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                endOfStream();
+            }
+        }
+
+        private void endOfStream() {
+            if (exchange != null) {
+                exchange.complete(null);
+            }
+        }
+    }
+}
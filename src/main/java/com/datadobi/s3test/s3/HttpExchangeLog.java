@@ -0,0 +1,104 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import com.datadobi.s3test.util.AsyncFileWriter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the HTTP exchanges of each test as JSON lines to {@code http.jsonl} in the test's log directory.
+ * <p>
+ * Each line is one {@link HttpExchange}. Unlike the wire trace, these records can be processed directly, e.g. to
+ * compare the responses or latencies of different servers.
+ */
+public class HttpExchangeLog {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpExchangeLog.class);
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final @Nullable Path logPath;
+    private final String fileName;
+    private final HttpExchangeInterceptor interceptor;
+    private volatile @Nullable AsyncFileWriter writer;
+
+    public HttpExchangeLog(@Nullable Path logPath) {
+        this(logPath, "http.jsonl", DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public HttpExchangeLog(@Nullable Path logPath, String fileName, int maxBodyBytes) {
+        this.logPath = logPath;
+        this.fileName = fileName;
+        this.interceptor = new HttpExchangeInterceptor(this::write, maxBodyBytes);
+    }
+
+    public boolean isEnabled() {
+        return logPath != null;
+    }
+
+    /**
+     * The interceptor that needs to be installed on S3 clients whose traffic should be logged.
+     */
+    public HttpExchangeInterceptor interceptor() {
+        return interceptor;
+    }
+
+    public void start(Description description) throws IOException {
+        if (logPath == null) {
+            return;
+        }
+
+        Path path = Files.createDirectories(
+                logPath.resolve(description.getTestClass().getSimpleName()).resolve(description.getMethodName())
+        );
+        writer = new AsyncFileWriter(path.resolve(fileName), false);
+    }
+
+    public void stop() throws IOException {
+        AsyncFileWriter w = writer;
+        writer = null;
+        if (w != null) {
+            w.close();
+        }
+    }
+
+    private void write(HttpExchange exchange) {
+        AsyncFileWriter w = writer;
+        if (w == null) {
+            return;
+        }
+
+        try {
+            w.writeLine(MAPPER.writeValueAsString(exchange));
+        } catch (JsonProcessingException e) {
+            // Never fail the request being logged
+            LOG.warn("Could not serialize HTTP exchange", e);
+        }
+    }
+}
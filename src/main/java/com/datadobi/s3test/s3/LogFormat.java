@@ -0,0 +1,58 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Selects which HTTP logs are written to the log directory of each test.
+ */
+public enum LogFormat {
+    /**
+     * Raw Apache HTTP client wire trace ({@code wire.log.gz}).
+     */
+    WIRE,
+    /**
+     * One JSON record per HTTP exchange ({@code http.jsonl}).
+     */
+    JSONL,
+    /**
+     * Both of the above.
+     */
+    ALL,
+    ;
+
+    /**
+     * The format given by {@code S3TEST_WIRELOG_FORMAT}, or {@link #WIRE}.
+     */
+    public static final LogFormat DEFAULT = fromString(Objects.requireNonNullElse(System.getenv("S3TEST_WIRELOG_FORMAT"), "wire"));
+
+    public static LogFormat fromString(String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    public boolean wire() {
+        return this == WIRE || this == ALL;
+    }
+
+    public boolean jsonl() {
+        return this == JSONL || this == ALL;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import com.datadobi.s3test.util.KeyEncoding;
+import com.datadobi.s3test.util.TLS;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.http.SdkHttpMethod;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends signed S3 requests with object keys given as raw bytes, bypassing all client-side validation and
+ * normalization of the SDK.
+ * <p>
+ * Connections are pooled and kept alive across requests, so a sweep over many keys pays for the TLS handshake only
+ * once per connection. Instances are thread safe and meant to be shared by concurrent callers.
+ */
+public class RawS3Client implements AutoCloseable {
+    private static final Pattern LISTED_KEY = Pattern.compile("<Key>([^<]*)</Key>");
+    private static final Pattern NEXT_CONTINUATION_TOKEN = Pattern.compile("<NextContinuationToken>([^<]*)</NextContinuationToken>");
+    private static final Pattern DELETE_ERROR = Pattern.compile("<Error>");
+    private static final int MAX_DELETE_KEYS = 1000;
+
+    private final ServiceDefinition target;
+    private final SigV4Signer signer;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    public RawS3Client(ServiceDefinition target) throws IOException {
+        this.target = target;
+
+        AwsCredentials credentials = target.getCredentials().resolveCredentials();
+        this.signer = new SigV4Signer(credentials, target.signingRegion());
+
+        SSLConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(
+                TLS.createLenientSSLSocketFactory(TLS.createLenientTrustManager()),
+                new NoopHostnameVerifier()
+        );
+        this.connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", sslSocketFactory)
+                        .build()
+        );
+        connectionManager.setMaxTotal(S3.MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(S3.MAX_CONNECTIONS);
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                //don't normalize URI's, we carefully craft them!
+                .setDefaultRequestConfig(RequestConfig.copy(RequestConfig.DEFAULT)
+                        .setNormalizeUri(false)
+                        .setConnectTimeout((int) S3.CONNECTION_TIMEOUT.toMillis())
+                        .setSocketTimeout((int) S3.SOCKET_TIMEOUT.toMillis())
+                        .build());
+
+        URI proxy = target.proxyEndpoint();
+        if (proxy != null) {
+            builder.setProxy(new HttpHost(proxy.getHost(), proxy.getPort(), proxy.getScheme()));
+        }
+
+        this.httpClient = builder.build();
+    }
+
+    /**
+     * @param status  HTTP status code
+     * @param headers response headers, keyed case-insensitively
+     * @param body    response body, empty for HEAD requests
+     */
+    public record Response(int status, Map<String, String> headers, byte[] body) {
+        public boolean isSuccess() {
+            return status / 100 == 2;
+        }
+    }
+
+    /**
+     * One page of a listing.
+     *
+     * @param keys                  raw bytes of the listed keys
+     * @param nextContinuationToken token for the next page, {@code null} on the last page
+     */
+    public record ListPage(List<byte[]> keys, @Nullable String nextContinuationToken) {
+    }
+
+    public Response listBuckets() throws IOException {
+        return execute(SdkHttpMethod.GET, "/", null);
+    }
+
+    /**
+     * Puts an object whose key is the concatenation of {@code keyBytes}.
+     * <p>
+     * You need to specify the bytes, so that Java doesn't try to do UTF-8 validation and fixing client side.
+     */
+    public Response putObject(String bucket, byte[] data, byte[]... keyBytes) throws IOException {
+        return execute(SdkHttpMethod.PUT, bucket + "/" + KeyEncoding.urlEncode(keyBytes), data);
+    }
+
+    public Response getObject(String bucket, byte[]... keyBytes) throws IOException {
+        return execute(SdkHttpMethod.GET, bucket + "/" + KeyEncoding.urlEncode(keyBytes), null);
+    }
+
+    public Response headObject(String bucket, byte[]... keyBytes) throws IOException {
+        return execute(SdkHttpMethod.HEAD, bucket + "/" + KeyEncoding.urlEncode(keyBytes), null);
+    }
+
+    public Response deleteObject(String bucket, byte[]... keyBytes) throws IOException {
+        return execute(SdkHttpMethod.DELETE, bucket + "/" + KeyEncoding.urlEncode(keyBytes), null);
+    }
+
+    /**
+     * Lists the objects in a bucket using ListObjectsV2. The returned body is the unparsed XML document. Keys are
+     * requested with {@code encoding-type=url}, so keys that cannot be represented in XML are listed as well.
+     *
+     * @param prefix raw prefix bytes, or {@code null} to list the whole bucket
+     */
+    public Response listObjects(String bucket, @Nullable byte[] prefix, @Nullable String continuationToken) throws IOException {
+        StringBuilder path = new StringBuilder(bucket).append("?list-type=2&encoding-type=url");
+        if (prefix != null) {
+            path.append("&prefix=").append(KeyEncoding.urlEncode(prefix));
+        }
+        if (continuationToken != null) {
+            path.append("&continuation-token=").append(KeyEncoding.urlEncode(continuationToken.getBytes(StandardCharsets.UTF_8)));
+        }
+        return execute(SdkHttpMethod.GET, path.toString(), null);
+    }
+
+    /**
+     * Lists one page of keys, see {@link #listObjects(String, byte[], String)}.
+     */
+    public ListPage listObjectKeys(String bucket, @Nullable byte[] prefix, @Nullable String continuationToken) throws IOException {
+        Response response = listObjects(bucket, prefix, continuationToken);
+        if (!response.isSuccess()) {
+            throw new IOException("ListObjectsV2 failed with status " + response.status());
+        }
+
+        String xml = new String(response.body(), StandardCharsets.UTF_8);
+        List<byte[]> keys = new ArrayList<>();
+        Matcher key = LISTED_KEY.matcher(xml);
+        while (key.find()) {
+            keys.add(KeyEncoding.urlDecode(key.group(1)));
+        }
+        Matcher token = NEXT_CONTINUATION_TOKEN.matcher(xml);
+        return new ListPage(keys, token.find() ? unescapeXml(token.group(1)) : null);
+    }
+
+    /**
+     * Deletes the given keys using DeleteObjects. Keys that cannot be represented in the XML request are deleted with
+     * individual DeleteObject requests instead.
+     *
+     * @return the number of keys that could not be deleted
+     */
+    public int deleteObjects(String bucket, List<byte[]> keys) throws IOException {
+        int failed = 0;
+        List<String> xmlKeys = new ArrayList<>();
+        for (byte[] key : keys) {
+            String xmlKey = toXmlText(key);
+            if (xmlKey == null) {
+                if (!deleteObject(bucket, key).isSuccess()) {
+                    failed++;
+                }
+                continue;
+            }
+
+            xmlKeys.add(xmlKey);
+            if (xmlKeys.size() == MAX_DELETE_KEYS) {
+                failed += deleteObjectsBatch(bucket, xmlKeys);
+                xmlKeys.clear();
+            }
+        }
+        if (!xmlKeys.isEmpty()) {
+            failed += deleteObjectsBatch(bucket, xmlKeys);
+        }
+        return failed;
+    }
+
+    private int deleteObjectsBatch(String bucket, List<String> xmlKeys) throws IOException {
+        StringBuilder xml = new StringBuilder("<Delete><Quiet>true</Quiet>");
+        for (String key : xmlKeys) {
+            xml.append("<Object><Key>").append(key).append("</Key></Object>");
+        }
+        xml.append("</Delete>");
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        String contentMd5;
+        try {
+            contentMd5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Response response = execute(SdkHttpMethod.POST, bucket + "?delete", body, Map.of(
+                "Content-Type", "application/xml",
+                "Content-MD5", contentMd5
+        ));
+        if (!response.isSuccess()) {
+            return xmlKeys.size();
+        }
+
+        // Quiet mode only reports the keys that could not be deleted
+        Matcher errors = DELETE_ERROR.matcher(new String(response.body(), StandardCharsets.UTF_8));
+        int failed = 0;
+        while (errors.find()) {
+            failed++;
+        }
+        return failed;
+    }
+
+    /**
+     * The key as escaped XML text, or {@code null} if it is not valid UTF-8 or contains characters XML 1.0 cannot
+     * represent. Carriage returns are excluded as well, since XML parsers normalize them to line feeds.
+     */
+    private static @Nullable String toXmlText(byte[] key) {
+        String text;
+        try {
+            text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(key))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x20 && c != '\t' && c != '\n' || c == 0xFFFE || c == 0xFFFF) {
+                return null;
+            }
+            switch (c) {
+                case '&' -> escaped.append("&amp;");
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                case '"' -> escaped.append("&quot;");
+                case '\'' -> escaped.append("&apos;");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescapeXml(String text) {
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    /**
+     * Creates presigned URLs for the given keys, e.g. to hand a large key sweep to another HTTP client.
+     */
+    public List<URI> presign(SdkHttpMethod method, String bucket, Duration expiry, List<byte[]> keys) {
+        List<URI> uris = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            uris.add(target.endpoint().resolve(bucket + "/" + KeyEncoding.urlEncode(key)));
+        }
+        return signer.presign(method, uris, expiry);
+    }
+
+    private Response execute(SdkHttpMethod method, String path, @Nullable byte[] data) throws IOException {
+        return execute(method, path, data, data == null ? Map.of() : Map.of("Content-Type", "text/plain"));
+    }
+
+    private Response execute(SdkHttpMethod method, String path, @Nullable byte[] data, Map<String, String> headers) throws IOException {
+        URI uri = target.endpoint().resolve(path);
+
+        HttpRequestBase request = switch (method) {
+            case PUT -> {
+                HttpPut put = new HttpPut(uri);
+                put.setEntity(new ByteArrayEntity(data == null ? new byte[0] : data));
+                yield put;
+            }
+            case POST -> {
+                HttpPost post = new HttpPost(uri);
+                post.setEntity(new ByteArrayEntity(data == null ? new byte[0] : data));
+                yield post;
+            }
+            case GET -> new HttpGet(uri);
+            case HEAD -> new HttpHead(uri);
+            case DELETE -> new HttpDelete(uri);
+            default -> throw new IllegalArgumentException("Unsupported method " + method);
+        };
+
+        for (Map.Entry<String, String> header : sign(method, uri, data, headers).entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        return httpClient.execute(request, response -> {
+            Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Header header : response.getAllHeaders()) {
+                responseHeaders.put(header.getName(), header.getValue());
+            }
+            HttpEntity entity = response.getEntity();
+            byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+            return new Response(response.getStatusLine().getStatusCode(), responseHeaders, body);
+        });
+    }
+
+    private Map<String, String> sign(SdkHttpMethod method, URI uri, @Nullable byte[] data, Map<String, String> headers) {
+        if (data == null) {
+            return signer.sign(method, uri, headers, SigV4Signer.EMPTY_PAYLOAD_SHA256);
+        }
+        return signer.sign(method, uri, headers, SigV4Signer.sha256Hex(data));
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+        connectionManager.close();
+    }
+}
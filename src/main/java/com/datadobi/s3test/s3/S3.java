@@ -31,6 +31,7 @@ import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.awscore.util.AwsHostNameUtils;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
 import software.amazon.awssdk.core.retry.RetryMode;
 import software.amazon.awssdk.core.retry.RetryPolicy;
 import software.amazon.awssdk.core.retry.conditions.RetryCondition;
@@ -38,6 +39,7 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.SdkHttpConfigurationOption;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.apache.ProxyConfiguration;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.LegacyMd5Plugin;
 import software.amazon.awssdk.services.s3.S3Client;
@@ -48,6 +50,7 @@ import software.amazon.awssdk.utils.AttributeMap;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.URI;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
@@ -72,6 +75,16 @@ public class S3 {
             .orElse(null);
 
     public static S3Client createClient(ServiceDefinition target) {
+        return createClient(target, List.of());
+    }
+
+    public static S3Client createClient(ServiceDefinition target, List<? extends ExecutionInterceptor> interceptors) {
+        return createClient(target, interceptors, RetryPolicy.builder(RetryMode.STANDARD)
+                .numRetries(NUM_RETRIES)
+                .build());
+    }
+
+    public static S3Client createClient(ServiceDefinition target, List<? extends ExecutionInterceptor> interceptors, RetryPolicy retryPolicy) {
         S3ClientBuilder clientBuilder = S3Client.builder();
 
         // Rolls back the SDK v2.30 checksum changes to avoid compatibility issues
@@ -80,10 +93,7 @@ public class S3 {
 
         ClientOverrideConfiguration.Builder clientConfiguration = ClientOverrideConfiguration.builder();
 
-        var defaultRetryPolicy = RetryPolicy.builder(RetryMode.STANDARD)
-                .numRetries(NUM_RETRIES)
-                .build();
-        clientConfiguration.retryPolicy(defaultRetryPolicy);
+        clientConfiguration.retryPolicy(retryPolicy);
 
         clientConfiguration.apiCallTimeout(API_CALL_TIMEOUT);
         clientConfiguration.apiCallAttemptTimeout(API_CALL_ATTEMPT_TIMEOUT);
@@ -92,6 +102,7 @@ public class S3 {
         // When creating directory placeholders on certain servers, the request
         // fails otherwise.
         clientConfiguration.addExecutionInterceptor(new NoChunkedForEmptyPutInterceptor());
+        interceptors.forEach(clientConfiguration::addExecutionInterceptor);
         clientBuilder.overrideConfiguration(clientConfiguration.build());
 
         String accessKey = target.accessKeyId();
@@ -124,17 +135,29 @@ public class S3 {
         boolean forcePathStyle = target.addressingStyle() == AddressingStyle.PATH || InetAddresses.isInetAddress(target.host());
         clientBuilder.forcePathStyle(forcePathStyle);
 
-        clientBuilder.httpClientBuilder(createHttpClientBuilder());
+        clientBuilder.httpClientBuilder(createHttpClientBuilder(target.proxyEndpoint()));
 
         return clientBuilder.build();
     }
 
     public static SdkHttpClient.Builder createHttpClientBuilder() {
+        return createHttpClientBuilder(null);
+    }
+
+    public static SdkHttpClient.Builder createHttpClientBuilder(@Nullable URI proxyEndpoint) {
         ApacheHttpClient.Builder httpClientBuilder = ApacheHttpClient.builder();
         httpClientBuilder.maxConnections(MAX_CONNECTIONS);
         httpClientBuilder.connectionTimeout(CONNECTION_TIMEOUT);
         httpClientBuilder.socketTimeout(SOCKET_TIMEOUT);
 
+        if (proxyEndpoint != null) {
+            httpClientBuilder.proxyConfiguration(ProxyConfiguration.builder()
+                    .endpoint(proxyEndpoint)
+                    .useSystemPropertyValues(false)
+                    .useEnvironmentVariableValues(false)
+                    .build());
+        }
+
         AttributeMap.Builder httpOptionsBuilder = AttributeMap.builder();
         httpOptionsBuilder.put(SdkHttpConfigurationOption.TRUST_ALL_CERTIFICATES, Boolean.TRUE);
         return serviceDefaults -> httpClientBuilder.buildWithDefaults(
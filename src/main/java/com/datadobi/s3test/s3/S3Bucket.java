@@ -19,6 +19,7 @@
 package com.datadobi.s3test.s3;
 
 import com.datadobi.s3test.http.Range;
+import com.datadobi.s3test.util.Poller;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
@@ -29,11 +30,22 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 public class S3Bucket {
     private final S3Client client;
@@ -82,6 +94,54 @@ public class S3Bucket {
         );
     }
 
+    /**
+     * Uploads all given objects concurrently. See {@link #putObjects(int, IntFunction, IntFunction)}.
+     */
+    public void putObjects(Map<String, String> objects) {
+        List<Map.Entry<String, String>> entries = List.copyOf(objects.entrySet());
+        putObjects(entries.size(), i -> entries.get(i).getKey(), i -> entries.get(i).getValue());
+    }
+
+    /**
+     * Uploads {@code count} objects concurrently, with at most {@link S3#MAX_CONNECTIONS} uploads in flight.
+     * <p>
+     * Returns once every upload has completed, so all objects that were uploaded successfully are durable. If any
+     * upload failed, an exception is thrown that carries all failures as suppressed exceptions.
+     *
+     * @param key     the key of the i-th object
+     * @param content the content of the i-th object
+     */
+    public void putObjects(int count, IntFunction<String> key, IntFunction<String> content) {
+        Semaphore inFlight = new Semaphore(Math.max(1, S3.MAX_CONNECTIONS));
+        List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < count; i++) {
+                String objectKey = key.apply(i);
+                String objectContent = content.apply(i);
+
+                inFlight.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        putObject(objectKey, objectContent);
+                    } catch (Exception e) {
+                        failures.add(e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            IllegalStateException combiningException = new IllegalStateException(String.format(
+                    "Unable to put %d of %d objects in %s: %s", failures.size(), count, bucket, failures.get(0).getMessage()
+            ));
+            failures.forEach(combiningException::addSuppressed);
+            throw combiningException;
+        }
+    }
+
     public List<String> listObjectKeys(S3.ListObjectsVersion version) {
         return listObjectKeys(version, null, null);
     }
@@ -94,6 +154,17 @@ public class S3Bucket {
         return S3.listObjectKeys(client, bucket, version, maxKeys, startAfter);
     }
 
+    /**
+     * Lists keys with ListObjectsV2, fetching pages only as the stream is consumed. Keys are URL encoded on the wire,
+     * so keys with characters that XML cannot carry are listed too; the SDK decodes them.
+     */
+    public Stream<String> streamObjectKeys(@Nullable String prefix, @Nullable Integer maxKeys) {
+        return client.listObjectsV2Paginator(r -> r.bucket(bucket).prefix(prefix).maxKeys(maxKeys).encodingType(EncodingType.URL))
+                .contents()
+                .stream()
+                .map(S3Object::key);
+    }
+
     public ListObjectsResponse listObjectsV1(@Nullable Integer maxKeys, @Nullable String marker) {
         return listObjectsV1(r -> {
             r.maxKeys(maxKeys);
@@ -135,16 +206,72 @@ public class S3Bucket {
         });
     }
 
-    public HeadObjectResponse headObjectWithETag(String key, String expectedETag, Duration timeout) throws TimeoutException {
-        Instant start = Instant.now();
-        do {
-            HeadObjectResponse response = headObject(key);
-            if (response.eTag().equals(expectedETag)) {
-                return response;
-            }
-        } while (Duration.between(start, Instant.now()).compareTo(timeout) < 0);
+    /**
+     * Waits until HEAD reports the given ETag for a key, e.g. after overwriting it on an eventually consistent server.
+     */
+    public HeadObjectResponse headObjectWithETag(String key, String expectedETag, Duration timeout) throws TimeoutException, InterruptedException {
+        return Poller.await(
+                "HEAD " + key + " to return ETag " + expectedETag,
+                timeout,
+                () -> headObjectOrNull(key),
+                r -> r != null && expectedETag.equals(r.eTag())
+        );
+    }
 
-        throw new TimeoutException();
+    /**
+     * Waits until a listing of the bucket contains the given key.
+     */
+    public void awaitKeyListed(String key, Duration timeout) throws TimeoutException, InterruptedException {
+        Poller.await(
+                "LIST to contain " + key,
+                timeout,
+                () -> listObjectsV2(r -> r.prefix(key)).contents().stream().anyMatch(o -> o.key().equals(key)),
+                listed -> listed
+        );
+    }
+
+    /**
+     * Waits until HEAD reports that the given key does not exist, e.g. after it was deleted.
+     */
+    public void awaitObjectDeleted(String key, Duration timeout) throws TimeoutException, InterruptedException {
+        Poller.await(
+                "HEAD " + key + " to return 404",
+                timeout,
+                () -> headObjectOrNull(key),
+                Objects::isNull
+        );
+    }
+
+    /**
+     * Waits until the server's clock, as reported in the {@code Date} response header, is past the second containing
+     * {@code instant}. Timestamps such as {@code LastModified} have a resolution of one second, so this is the minimum
+     * wait for a later write to get a different timestamp.
+     */
+    public void awaitServerTimeAfter(Instant instant, Duration timeout) throws TimeoutException, InterruptedException {
+        Instant threshold = instant.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        Poller.await(
+                "server time to pass " + threshold,
+                timeout,
+                () -> client.headBucket(r -> r.bucket(bucket)).sdkHttpResponse().firstMatchingHeader("Date")
+                        .map(date -> ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+                        // Fall back to the local clock if the server does not report its time
+                        .orElseGet(Instant::now),
+                now -> !now.isBefore(threshold)
+        );
+    }
+
+    @Nullable
+    private HeadObjectResponse headObjectOrNull(String key) {
+        try {
+            return headObject(key);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
     }
 
     public ResponseInputStream<GetObjectResponse> getObject(String key) {
@@ -18,46 +18,92 @@
  */
 package com.datadobi.s3test.s3;
 
+import com.datadobi.s3test.server.FaultInjectionProxy;
+import com.datadobi.s3test.server.ServiceUris;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.ClassRule;
 import org.junit.Rule;
+import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
 import software.amazon.awssdk.services.s3.S3Client;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class S3TestBase {
-    public static final Config DEFAULT_CONFIG;
+    private static final Logger LOG = LoggerFactory.getLogger(S3TestBase.class);
+
+    /*
+     * The defaults below are set by RunTests, or else read from the S3TEST_* environment variables when the first test
+     * is created. Reading them lazily keeps tools that merely reference this class from parsing configuration or
+     * starting a fault injection proxy.
+     */
     public static ServiceDefinition DEFAULT_SERVICE;
     public static WireLogger WIRE_LOGGER;
+    public static HttpExchangeLog EXCHANGE_LOG;
+    /** Additional interceptors installed on the client of each test. */
+    public static final List<ExecutionInterceptor> INTERCEPTORS = new CopyOnWriteArrayList<>();
 
     private static final boolean CAPTURE_SETUP = Boolean.parseBoolean(Objects.requireNonNullElse(System.getenv("S3TEST_WIRELOG_SETUP"), "false"));
     private static final boolean CAPTURE_TEARDOWN = Boolean.parseBoolean(Objects.requireNonNullElse(System.getenv("S3TEST_WIRELOG_TEARDOWN"), "false"));
 
-    static {
-        String config = System.getenv("S3TEST_CONFIG");
-        if (config != null) {
-            DEFAULT_CONFIG = Config.loadFromToml(Path.of(config));
-        } else {
-            DEFAULT_CONFIG = Config.AWS_CONFIG;
+    private static boolean environmentApplied;
+
+    /**
+     * Fills in the defaults that were not set explicitly from the environment. Only the first call has any effect.
+     */
+    private static synchronized void applyEnvironment() {
+        if (environmentApplied) {
+            return;
         }
+        environmentApplied = true;
 
         String testUri = System.getenv("S3TEST_URI");
-        if (testUri != null) {
+        if (DEFAULT_SERVICE == null && testUri != null) {
+            String configPath = System.getenv("S3TEST_CONFIG");
+            Config config = configPath != null ? Config.loadFromToml(Path.of(configPath)) : Config.AWS_CONFIG;
             try {
-                DEFAULT_SERVICE = ServiceDefinition.fromURI(testUri).toBuilder().quirks(DEFAULT_CONFIG.quirks()).build();
+                ServiceDefinition service = config.applyTo(ServiceUris.fromURI(testUri));
+                if (config.faults().isEnabled()) {
+                    if (service.useEncryption() && config.faults().requiresPlainHttp()) {
+                        throw new IllegalArgumentException("Slow down and truncate faults cannot be injected into HTTPS traffic, use an http:// endpoint for " + testUri);
+                    }
+                    FaultInjectionProxy proxy = new FaultInjectionProxy(config.faults());
+                    proxy.start();
+                    service = service.toBuilder().proxyEndpoint(proxy.endpoint()).build();
+                }
+                DEFAULT_SERVICE = service;
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
         String wireLogPath = System.getenv("S3TEST_WIRELOG");
-        WIRE_LOGGER = new WireLogger(wireLogPath == null ? null : Path.of(wireLogPath));
-
+        LogFormat logFormat = LogFormat.DEFAULT;
+        Path logPath = wireLogPath == null ? null : Path.of(wireLogPath);
+        if (WIRE_LOGGER == null) {
+            WIRE_LOGGER = new WireLogger(logFormat.wire() ? logPath : null);
+        }
+        if (EXCHANGE_LOG == null) {
+            EXCHANGE_LOG = new HttpExchangeLog(logFormat.jsonl() ? logPath : null);
+            if (EXCHANGE_LOG.isEnabled()) {
+                INTERCEPTORS.add(EXCHANGE_LOG.interceptor());
+            }
+        }
     }
 
     private Description currentTest;
@@ -65,6 +111,27 @@ public class S3TestBase {
     /** When cleanup fails, next test uses this bucket instead of target.bucket(); cleared after use. */
     private static volatile String cleanupFailedNextBucket = null;
 
+    /**
+     * Buckets holding the {@link ReadOnlyFixture} of each test class and target that is currently running. The bucket
+     * is created by whichever test gets there first; concurrent tests wait on the same task.
+     */
+    private static final Map<SharedFixtureKey, FutureTask<String>> SHARED_FIXTURES = new ConcurrentHashMap<>();
+
+    private record SharedFixtureKey(Class<?> testClass, ServiceDefinition target) {
+    }
+
+    @ClassRule
+    public static final TestRule sharedFixtureCleanup = (base, description) -> new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+            try {
+                base.evaluate();
+            } finally {
+                deleteSharedFixture(description.getTestClass());
+            }
+        }
+    };
+
     @Rule(order = 0)
     public TestWatcher testName = new TestWatcher() {
         @Override
@@ -79,12 +146,19 @@ public class S3TestBase {
     protected final ServiceDefinition target;
     protected S3Client s3;
     protected S3Bucket bucket;
+    private boolean usesSharedFixture;
 
     public S3TestBase() throws IOException {
-        this(DEFAULT_SERVICE != null ? DEFAULT_SERVICE : ServiceDefinition.fromS3Profile("default"));
+        this(defaultService());
+    }
+
+    private static ServiceDefinition defaultService() throws IOException {
+        applyEnvironment();
+        return DEFAULT_SERVICE != null ? DEFAULT_SERVICE : ServiceDefinition.fromS3Profile("default");
     }
 
     public S3TestBase(ServiceDefinition parameter) {
+        applyEnvironment();
         this.target = parameter;
     }
 
@@ -92,37 +166,53 @@ public class S3TestBase {
     public final void setUp() throws IOException {
         if (CAPTURE_SETUP) {
             WIRE_LOGGER.start(currentTest);
+            EXCHANGE_LOG.start(currentTest);
         }
 
-        s3 = S3.createClient(target);
+        s3 = S3.createClient(target, INTERCEPTORS);
 
-        String bucketName = cleanupFailedNextBucket != null ? cleanupFailedNextBucket : target.bucket();
-        this.bucket = new S3Bucket(s3, bucketName);
-        if (target.createBucket()) {
-            bucket.create();
-        }
-        // If we used a fallback bucket, keep using new buckets for subsequent tests (original may still exist).
-        if (cleanupFailedNextBucket != null) {
-            cleanupFailedNextBucket = "s3test-" + UUID.randomUUID();
+        boolean readOnly = currentTest.getAnnotation(ReadOnlyFixture.class) != null;
+        if (readOnly && target.createBucket()) {
+            this.bucket = new S3Bucket(s3, sharedFixtureBucket());
+            this.usesSharedFixture = true;
         } else {
-            cleanupFailedNextBucket = null;
+            String bucketName = cleanupFailedNextBucket != null ? cleanupFailedNextBucket : target.bucket();
+            this.bucket = new S3Bucket(s3, bucketName);
+            if (target.createBucket()) {
+                bucket.create();
+            }
+            // If we used a fallback bucket, keep using new buckets for subsequent tests (original may still exist).
+            if (cleanupFailedNextBucket != null) {
+                cleanupFailedNextBucket = "s3test-" + UUID.randomUUID();
+            } else {
+                cleanupFailedNextBucket = null;
+            }
+
+            if (readOnly) {
+                populateReadOnlyFixture(bucket);
+            }
         }
 
         if (!CAPTURE_SETUP) {
             WIRE_LOGGER.start(currentTest);
+            EXCHANGE_LOG.start(currentTest);
         }
     }
 
     @After
-    public final void tearDown() {
+    public final void tearDown() throws IOException {
         if (!CAPTURE_TEARDOWN) {
             WIRE_LOGGER.stop();
+            EXCHANGE_LOG.stop();
         }
 
         try {
-            S3.clearBucket(s3, bucket.name());
-            if (target.createBucket()) {
-                bucket.delete();
+            // The shared fixture bucket is deleted once all tests of the class have run
+            if (!usesSharedFixture) {
+                S3.clearBucket(s3, bucket.name());
+                if (target.createBucket()) {
+                    bucket.delete();
+                }
             }
         } catch (Throwable t) {
             // Cleanup failed (e.g. bucket not empty): use a new bucket for next test and do not
@@ -134,6 +224,85 @@ public class S3TestBase {
 
         if (CAPTURE_TEARDOWN) {
             WIRE_LOGGER.stop();
+            EXCHANGE_LOG.stop();
+        }
+    }
+
+    /**
+     * Creates the objects read by the {@link ReadOnlyFixture} tests of this class. Tests using the fixture must not
+     * modify the bucket.
+     */
+    protected void populateReadOnlyFixture(S3Bucket bucket) {
+    }
+
+    private String sharedFixtureBucket() throws IOException {
+        SharedFixtureKey key = new SharedFixtureKey(getClass(), target);
+        FutureTask<String> task = new FutureTask<>(() -> {
+            S3Bucket fixture = new S3Bucket(s3, "s3test-" + UUID.randomUUID());
+            fixture.create();
+            try {
+                populateReadOnlyFixture(fixture);
+            } catch (RuntimeException e) {
+                S3.clearBucket(s3, fixture.name());
+                fixture.delete();
+                throw e;
+            }
+            return fixture.name();
+        });
+
+        FutureTask<String> existing = SHARED_FIXTURES.putIfAbsent(key, task);
+        if (existing == null) {
+            // Created outside the map so that other classes and targets are not blocked by this one
+            task.run();
+            existing = task;
+        }
+
+        try {
+            return existing.get();
+        } catch (ExecutionException e) {
+            // Let the next test of the class retry instead of failing on a cached error
+            SHARED_FIXTURES.remove(key, existing);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void deleteSharedFixture(Class<?> testClass) {
+        for (SharedFixtureKey key : List.copyOf(SHARED_FIXTURES.keySet())) {
+            if (key.testClass() != testClass) {
+                continue;
+            }
+            FutureTask<String> task = SHARED_FIXTURES.remove(key);
+            if (task == null) {
+                continue;
+            }
+
+            String bucket;
+            try {
+                bucket = task.get();
+            } catch (ExecutionException e) {
+                // Creation failed and already cleaned up after itself
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try (S3Client client = S3.createClient(key.target())) {
+                S3.clearBucket(client, bucket);
+                S3.deleteBucket(client, bucket);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not delete fixture bucket {}", bucket, e);
+            }
         }
     }
 }
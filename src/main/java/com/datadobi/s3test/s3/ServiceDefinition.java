@@ -272,6 +272,11 @@ public abstract class ServiceDefinition {
 
     public abstract boolean createBucket();
 
+    /**
+     * HTTP proxy through which all requests are sent, if any.
+     */
+    public abstract @Nullable URI proxyEndpoint();
+
     public abstract Builder toBuilder();
 
     public static Builder builder() {
@@ -337,6 +342,8 @@ public abstract class ServiceDefinition {
 
         public abstract Builder payloadSigningEnabled(boolean value);
 
+        public abstract Builder proxyEndpoint(@Nullable URI proxyEndpoint);
+
         public abstract ServiceDefinition build();
 
     }
@@ -0,0 +1,311 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.regions.Region;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AWS Signature Version 4 signer for raw S3 requests.
+ * <p>
+ * Unlike the SDK signers, which derive the signing key for every request, the derived key is cached for as long as the
+ * signing date does not change. Request paths and query strings are signed exactly as given, so keys that were
+ * percent-encoded byte by byte are not re-encoded. Instances are thread safe.
+ */
+public class SigV4Signer {
+    public static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    public static final String EMPTY_PAYLOAD_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final HexFormat HEX = HexFormat.of();
+    private static final HexFormat UPPER_HEX = HexFormat.of().withUpperCase();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<Mac> HMAC_SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final AwsCredentials credentials;
+    private final String region;
+    private final String service;
+    private volatile SigningKey signingKey;
+
+    public SigV4Signer(AwsCredentials credentials, Region region) {
+        this(credentials, region, "s3");
+    }
+
+    public SigV4Signer(AwsCredentials credentials, Region region, String service) {
+        this.credentials = credentials;
+        this.region = region.id();
+        this.service = service;
+    }
+
+    private record SigningKey(String date, byte[] key) {
+    }
+
+    /**
+     * Signs a request.
+     *
+     * @param headers     additional headers to sign, e.g. {@code Content-Type}
+     * @param payloadHash hex encoded SHA-256 of the body, or {@link #UNSIGNED_PAYLOAD}
+     * @return all headers to send with the request, including {@code Authorization}; {@code Host} is left to the HTTP
+     * client, which derives the same value from the URI
+     */
+    public Map<String, String> sign(SdkHttpMethod method, URI uri, Map<String, String> headers, String payloadHash) {
+        return sign(method, uri, headers, payloadHash, Instant.now());
+    }
+
+    Map<String, String> sign(SdkHttpMethod method, URI uri, Map<String, String> headers, String payloadHash, Instant now) {
+        String dateTime = DATE_TIME.format(now);
+        String date = dateTime.substring(0, 8);
+
+        TreeMap<String, String> signed = new TreeMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            signed.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue().trim().replaceAll(" +", " "));
+        }
+        signed.put("host", host(uri));
+        signed.put("x-amz-date", dateTime);
+        signed.put("x-amz-content-sha256", payloadHash);
+        if (credentials instanceof AwsSessionCredentials session) {
+            signed.put("x-amz-security-token", session.sessionToken());
+        }
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : signed.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+        }
+        String signedHeaders = String.join(";", signed.keySet());
+
+        String canonicalRequest = method.name() + '\n' +
+                canonicalPath(uri) + '\n' +
+                canonicalQuery(uri.getRawQuery()) + '\n' +
+                canonicalHeaders + '\n' +
+                signedHeaders + '\n' +
+                payloadHash;
+
+        String scope = scope(date);
+        String signature = signature(date, dateTime, scope, canonicalRequest);
+
+        TreeMap<String, String> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        result.putAll(headers);
+        result.putAll(signed);
+        result.remove("host");
+        result.put("Authorization", ALGORITHM + " Credential=" + credentials.accessKeyId() + "/" + scope +
+                ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+        return result;
+    }
+
+    /**
+     * Creates a presigned URL that is valid for {@code expiry} without any additional headers.
+     */
+    public URI presign(SdkHttpMethod method, URI uri, Duration expiry) {
+        return presign(method, List.of(uri), expiry).getFirst();
+    }
+
+    /**
+     * Creates presigned URLs for many requests at once. All URLs share the same signing time.
+     */
+    public List<URI> presign(SdkHttpMethod method, List<URI> uris, Duration expiry) {
+        return presign(method, uris, expiry, Instant.now());
+    }
+
+    List<URI> presign(SdkHttpMethod method, List<URI> uris, Duration expiry, Instant now) {
+        String dateTime = DATE_TIME.format(now);
+        String date = dateTime.substring(0, 8);
+        String scope = scope(date);
+
+        StringBuilder authParams = new StringBuilder()
+                .append("X-Amz-Algorithm=").append(ALGORITHM)
+                .append("&X-Amz-Credential=").append(uriEncode((credentials.accessKeyId() + "/" + scope).getBytes(StandardCharsets.UTF_8)))
+                .append("&X-Amz-Date=").append(dateTime)
+                .append("&X-Amz-Expires=").append(expiry.toSeconds());
+        if (credentials instanceof AwsSessionCredentials session) {
+            authParams.append("&X-Amz-Security-Token=").append(uriEncode(session.sessionToken().getBytes(StandardCharsets.UTF_8)));
+        }
+        authParams.append("&X-Amz-SignedHeaders=host");
+
+        List<URI> presigned = new ArrayList<>(uris.size());
+        for (URI uri : uris) {
+            String query = uri.getRawQuery() == null ? authParams.toString() : uri.getRawQuery() + "&" + authParams;
+            String canonicalRequest = method.name() + '\n' +
+                    canonicalPath(uri) + '\n' +
+                    canonicalQuery(query) + '\n' +
+                    "host:" + host(uri) + '\n' +
+                    '\n' +
+                    "host\n" +
+                    UNSIGNED_PAYLOAD;
+
+            String signature = signature(date, dateTime, scope, canonicalRequest);
+            String base = uri.toString();
+            int queryStart = base.indexOf('?');
+            if (queryStart != -1) {
+                base = base.substring(0, queryStart);
+            }
+            presigned.add(URI.create(base + "?" + query + "&X-Amz-Signature=" + signature));
+        }
+        return presigned;
+    }
+
+    /**
+     * Hex encoded SHA-256 digest of a payload.
+     */
+    public static String sha256Hex(byte[] data) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return HEX.formatHex(digest.digest(data));
+    }
+
+    private String scope(String date) {
+        return date + "/" + region + "/" + service + "/aws4_request";
+    }
+
+    private String signature(String date, String dateTime, String scope, String canonicalRequest) {
+        String stringToSign = ALGORITHM + '\n' +
+                dateTime + '\n' +
+                scope + '\n' +
+                sha256Hex(canonicalRequest.getBytes(StandardCharsets.UTF_8));
+        return HEX.formatHex(hmac(signingKey(date), stringToSign));
+    }
+
+    private byte[] signingKey(String date) {
+        SigningKey key = signingKey;
+        if (key == null || !key.date().equals(date)) {
+            byte[] dateKey = hmac(("AWS4" + credentials.secretAccessKey()).getBytes(StandardCharsets.UTF_8), date);
+            byte[] regionKey = hmac(dateKey, region);
+            byte[] serviceKey = hmac(regionKey, service);
+            key = new SigningKey(date, hmac(serviceKey, "aws4_request"));
+            signingKey = key;
+        }
+        return key.key();
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        Mac mac = HMAC_SHA256.get();
+        try {
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String host(URI uri) {
+        return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    private static String canonicalPath(URI uri) {
+        // S3 signs the path as sent, without normalization or double encoding
+        String path = uri.getRawPath();
+        return path == null || path.isEmpty() ? "/" : path;
+    }
+
+    private static String canonicalQuery(@Nullable String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+
+        List<String[]> params = new ArrayList<>();
+        for (String param : rawQuery.split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int eq = param.indexOf('=');
+            String name = eq == -1 ? param : param.substring(0, eq);
+            String value = eq == -1 ? "" : param.substring(eq + 1);
+            params.add(new String[]{uriEncode(percentDecode(name)), uriEncode(percentDecode(value))});
+        }
+        params.sort((a, b) -> {
+            int c = a[0].compareTo(b[0]);
+            return c != 0 ? c : a[1].compareTo(b[1]);
+        });
+
+        StringBuilder query = new StringBuilder();
+        for (String[] param : params) {
+            if (!query.isEmpty()) {
+                query.append('&');
+            }
+            query.append(param[0]).append('=').append(param[1]);
+        }
+        return query.toString();
+    }
+
+    private static byte[] percentDecode(String value) {
+        byte[] out = new byte[value.length()];
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                out[length++] = (byte) Integer.parseInt(value, i + 1, i + 3, 16);
+                i += 2;
+            } else {
+                out[length++] = (byte) c;
+            }
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Encodes everything except the unreserved characters of RFC 3986, as required for canonical query strings.
+     */
+    private static String uriEncode(byte[] value) {
+        StringBuilder sb = new StringBuilder(value.length * 3);
+        for (byte b : value) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(UPPER_HEX.toHexDigits(b));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.s3;
+
+import com.datadobi.s3test.util.AsyncFileWriter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Log4j appender for the {@code org.apache.http.wire} logger that hands lines to an {@link AsyncFileWriter}.
+ * <p>
+ * Message heads (request/status line and headers) are always written in full. Message bodies are truncated after
+ * {@code maxBodyBytes} bytes per message; a negative limit disables truncation. Truncation runs on the writer thread,
+ * so the request thread only formats the log event.
+ */
+class WireLogAppender extends AbstractAppender {
+    // http-outgoing-0 >> "PUT /bucket/key HTTP/1.1[\r][\n]"
+    private static final Pattern WIRE_LINE = Pattern.compile("(?<stream>\\S+ (?:>>|<<)) \"(?<data>.*)\"", Pattern.DOTALL);
+    private static final Pattern MESSAGE_START = Pattern.compile("(?:[A-Z]+ \\S+ HTTP/1\\.[01]|HTTP/1\\.[01] [0-9]{3}).*", Pattern.DOTALL);
+    private static final String END_OF_HEAD = "[\\r][\\n]";
+
+    private final AsyncFileWriter writer;
+
+    WireLogAppender(String name, Path logFile, boolean compress, long maxBodyBytes) throws IOException {
+        super(name, null, null, true, Property.EMPTY_ARRAY);
+        UnaryOperator<String> filter = maxBodyBytes < 0 ? UnaryOperator.identity() : new BodyTruncation(maxBodyBytes);
+        this.writer = new AsyncFileWriter(logFile, compress, filter);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        writer.writeLine(event.getMessage().getFormattedMessage());
+    }
+
+    /**
+     * Truncates message bodies; only used by the writer thread.
+     */
+    private static class BodyTruncation implements UnaryOperator<String> {
+        private final long maxBodyBytes;
+        private final Map<String, StreamState> streams = new HashMap<>();
+
+        private BodyTruncation(long maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
+        @Override
+        public @Nullable String apply(String message) {
+            Matcher matcher = WIRE_LINE.matcher(message);
+            if (!matcher.matches()) {
+                return message;
+            }
+
+            String stream = matcher.group("stream");
+            String data = matcher.group("data");
+            StreamState state = streams.computeIfAbsent(stream, s -> new StreamState());
+
+            if (state.bodyBytes < 0 || MESSAGE_START.matcher(data).matches()) {
+                // Message head
+                state.bodyBytes = data.equals(END_OF_HEAD) ? 0 : -1;
+                state.truncated = false;
+                return message;
+            }
+
+            state.bodyBytes += decodedLength(data);
+            if (state.bodyBytes <= maxBodyBytes) {
+                return message;
+            } else if (!state.truncated) {
+                state.truncated = true;
+                return stream + " [body truncated after " + maxBodyBytes + " bytes]";
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Number of wire bytes represented by an escaped wire log fragment; {@code [\r]}, {@code [\n]} and
+     * {@code [0xNN]} each represent a single byte.
+     */
+    private static long decodedLength(String data) {
+        long length = 0;
+        int i = 0;
+        while (i < data.length()) {
+            if (data.charAt(i) == '[') {
+                int end = data.indexOf(']', i);
+                if (end != -1 && end - i <= 5) {
+                    i = end + 1;
+                    length++;
+                    continue;
+                }
+            }
+            i++;
+            length++;
+        }
+        return length;
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        try {
+            writer.close();
+        } catch (IOException e) {
+            error("Could not close wire log", e);
+        }
+        setStopped();
+        return stopped;
+    }
+
+    private static class StreamState {
+        private long bodyBytes = -1;
+        private boolean truncated;
+    }
+}
@@ -20,6 +20,7 @@ package com.datadobi.s3test.s3;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
@@ -31,23 +32,53 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Objects;
 
+/**
+ * Captures the Apache HTTP client wire trace of each test.
+ * <p>
+ * Log lines are written by a background thread so that logging does not slow down the requests being traced.
+ * The trace is gzip compressed by default ({@code S3TEST_WIRELOG_COMPRESS}), and message bodies are truncated after
+ * {@code S3TEST_WIRELOG_MAX_BODY} bytes (default 4096, negative for no limit).
+ */
 public class WireLogger {
-    static {
-        ConfigurationBuilder<BuiltConfiguration> configBuilder =
-                ConfigurationBuilderFactory.newConfigurationBuilder();
-        Configurator.initialize(configBuilder
-                .add(configBuilder.newRootLogger(Level.OFF))
-                .add(configBuilder.newLogger("org.apache.http.wire")
-                        .addAttribute("level", Level.DEBUG))
-                .build(false));
-    }
+    private static final String WIRE_LOGGER_NAME = "org.apache.http.wire";
+    private static final String CONSOLE_PATTERN = "%d{HH:mm:ss.SSS} %-5level [%t] %c{1} - %msg%n";
+
+    public static final boolean DEFAULT_COMPRESS = Boolean.parseBoolean(Objects.requireNonNullElse(System.getenv("S3TEST_WIRELOG_COMPRESS"), "true"));
+    public static final long DEFAULT_MAX_BODY_BYTES = Long.parseLong(Objects.requireNonNullElse(System.getenv("S3TEST_WIRELOG_MAX_BODY"), "4096"));
+
+    private static boolean wireLoggingEnabled;
 
     private final @Nullable Path logPath;
+    private final boolean compress;
+    private final long maxBodyBytes;
     private @Nullable Configuration previousConfiguration;
+    private @Nullable WireLogAppender appender;
 
     public WireLogger(@Nullable Path logPath) {
+        this(logPath, DEFAULT_COMPRESS, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public WireLogger(@Nullable Path logPath, boolean compress, long maxBodyBytes) {
         this.logPath = logPath;
+        this.compress = compress;
+        this.maxBodyBytes = maxBodyBytes;
+        if (logPath != null) {
+            enableWireLogging();
+        }
+    }
+
+    /**
+     * Turns on the wire logger in the base configuration (see {@code log4j2.properties}), so that connections opened
+     * outside a logged test, and reused by it, are traced too. This is only done once a trace is actually requested,
+     * since the HTTP client formats every byte on the wire while the logger is enabled.
+     */
+    private static synchronized void enableWireLogging() {
+        if (!wireLoggingEnabled) {
+            wireLoggingEnabled = true;
+            Configurator.setLevel(WIRE_LOGGER_NAME, Level.DEBUG);
+        }
     }
 
     private @Nullable Path logPath(Description description) throws IOException {
@@ -65,29 +96,45 @@ public class WireLogger {
             return;
         }
 
-        Path logFile = path.resolve("wire.log");
+        Path logFile = path.resolve(compress ? "wire.log.gz" : "wire.log");
         Files.deleteIfExists(logFile);
 
         ConfigurationBuilder<BuiltConfiguration> configBuilder =
                 ConfigurationBuilderFactory.newConfigurationBuilder();
+        // Same console output as log4j2.properties, so warnings stay visible while a test is traced
         Configuration configuration = configBuilder
-                .add(configBuilder
-                        .newAppender("wire", "File")
-                        .addAttribute("fileName", logFile)
-                        .add(configBuilder.newLayout("PatternLayout").addAttribute("pattern", "%m%n")))
-                .add(configBuilder.newRootLogger(Level.OFF))
-                .add(configBuilder.newLogger("org.apache.http.wire")
+                .add(configBuilder.newAppender("console", "Console")
+                        .addAttribute("target", ConsoleAppender.Target.SYSTEM_ERR)
+                        .add(configBuilder.newLayout("PatternLayout").addAttribute("pattern", CONSOLE_PATTERN)))
+                .add(configBuilder.newRootLogger(Level.WARN).add(configBuilder.newAppenderRef("console")))
+                .add(configBuilder.newLogger(WIRE_LOGGER_NAME)
                         .addAttribute("level", Level.DEBUG)
-                        .add(configBuilder.newAppenderRef("wire")))
+                        .addAttribute("additivity", false))
                 .build(false);
 
         previousConfiguration = LoggerContext.getContext().getConfiguration();
         Configurator.reconfigure(configuration);
+
+        // The appender is attached after reconfiguring since it is not created through the plugin system
+        appender = new WireLogAppender("wire", logFile, compress, maxBodyBytes);
+        appender.start();
+
+        LoggerContext context = LoggerContext.getContext(false);
+        Configuration active = context.getConfiguration();
+        active.addAppender(appender);
+        active.getLoggerConfig(WIRE_LOGGER_NAME).addAppender(appender, Level.DEBUG, null);
+        context.updateLoggers();
     }
 
     public void stop() {
         if (previousConfiguration != null) {
             Configurator.reconfigure(previousConfiguration);
         }
+
+        if (appender != null && !appender.isStopped()) {
+            // Waits for the writer thread to drain, outside the timed part of the test
+            appender.stop();
+        }
+        appender = null;
     }
 }
@@ -0,0 +1,101 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The checksums S3 computes over object data.
+ */
+final class Checksums {
+    /**
+     * Algorithm names as they appear in {@code x-amz-checksum-<name>} headers.
+     */
+    static final List<String> ALGORITHMS = List.of("crc32", "crc32c", "crc64nvme", "sha1", "sha256");
+
+    // Reflected form of the CRC-64/NVME polynomial 0xAD93D23594C93659
+    private static final long CRC64_NVME_POLY = 0x9A6C9329AC4BC9B5L;
+    private static final long[] CRC64_NVME_TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            long crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC64_NVME_POLY : crc >>> 1;
+            }
+            CRC64_NVME_TABLE[i] = crc;
+        }
+    }
+
+    private Checksums() {
+    }
+
+    /**
+     * Base64 encoded checksum of {@code data}, or {@code null} if the algorithm is not supported.
+     */
+    @Nullable
+    static String compute(String algorithm, byte[] data) {
+        return switch (algorithm) {
+            case "crc32" -> crc(new CRC32(), data);
+            case "crc32c" -> crc(new CRC32C(), data);
+            case "crc64nvme" -> Base64.getEncoder().encodeToString(ByteBuffer.allocate(8).putLong(crc64Nvme(data)).array());
+            case "sha1" -> Base64.getEncoder().encodeToString(digest("SHA-1", data));
+            case "sha256" -> Base64.getEncoder().encodeToString(digest("SHA-256", data));
+            default -> null;
+        };
+    }
+
+    /**
+     * Quoted hex encoded MD5 digest, the ETag of objects written in a single request.
+     */
+    static String eTag(byte[] data) {
+        return "\"" + HexFormat.of().formatHex(digest("MD5", data)) + "\"";
+    }
+
+    static byte[] digest(String algorithm, byte[] data) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long crc64Nvme(byte[] data) {
+        long crc = ~0L;
+        for (byte b : data) {
+            crc = CRC64_NVME_TABLE[(int) ((crc ^ b) & 0xFF)] ^ (crc >>> 8);
+        }
+        return ~crc;
+    }
+
+    private static String crc(Checksum checksum, byte[] data) {
+        checksum.update(data, 0, data.length);
+        byte[] value = ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array();
+        return Base64.getEncoder().encodeToString(value);
+    }
+}
@@ -0,0 +1,713 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.s3.FaultProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forward HTTP proxy that injects the faults of a {@link FaultProfile} into the traffic passing through it.
+ * <p>
+ * Plain HTTP requests are parsed, so every fault is applied per request. HTTPS traffic is tunnelled with
+ * {@code CONNECT} and cannot be inspected; tunnels only get the added latency, the bandwidth cap and connection
+ * resets, each decided once per connection. Callers reject profiles that {@linkplain FaultProfile#requiresPlainHttp()
+ * require plain HTTP} for HTTPS targets. A target that cannot be reached is reported as {@code 502 Bad Gateway}.
+ */
+public class FaultInjectionProxy implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FaultInjectionProxy.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final byte[] SLOW_DOWN_BODY = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<Error><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error>")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final FaultProfile profile;
+    private final Random random;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong tunnels = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong slowDowns = new AtomicLong();
+    private final AtomicLong truncations = new AtomicLong();
+    private final AtomicLong delayNanos = new AtomicLong();
+    private volatile boolean closed;
+
+    public FaultInjectionProxy(FaultProfile profile) throws IOException {
+        this.profile = profile;
+        this.random = profile.newRandom();
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(this::accept, "fault-injection-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * The URI to configure as HTTP proxy on the client.
+     */
+    public URI endpoint() {
+        return URI.create("http://127.0.0.1:" + port());
+    }
+
+    /**
+     * Counts of the requests seen and faults injected so far.
+     */
+    public String summary() {
+        return String.format(
+                "%d requests, %d tunnels, %d resets, %d slow downs, %d truncated responses, %d ms added latency",
+                requests.get(), tunnels.get(), resets.get(), slowDowns.get(), truncations.get(),
+                TimeUnit.NANOSECONDS.toMillis(delayNanos.get())
+        );
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.warn("Could not accept proxy connection", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        Upstream upstream = null;
+        try (client) {
+            client.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(client.getInputStream(), BUFFER_SIZE);
+            OutputStream out = new ThrottledOutputStream(client.getOutputStream(), profile.bandwidthBytesPerSec());
+
+            while (true) {
+                MessageHead request = MessageHead.read(in);
+                if (request == null) {
+                    return;
+                }
+
+                if (request.method().equals("CONNECT")) {
+                    tunnel(client, in, out, request);
+                    return;
+                }
+
+                String target = request.target();
+                if (!target.regionMatches(true, 0, "http://", 0, 7)) {
+                    sendError(out, 400, "Bad Request", "Only absolute http:// request targets are supported");
+                    return;
+                }
+                int pathStart = target.indexOf('/', 7);
+                String authority = pathStart == -1 ? target.substring(7) : target.substring(7, pathStart);
+                String path = pathStart == -1 ? "/" : target.substring(pathStart);
+
+                if (upstream == null || !upstream.authority.equals(authority)) {
+                    closeQuietly(upstream);
+                    upstream = connect(out, authority, 80);
+                    if (upstream == null) {
+                        return;
+                    }
+                }
+
+                if (!forward(client, in, out, request, path, upstream)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("Proxy connection closed", e);
+        } finally {
+            closeQuietly(upstream);
+        }
+    }
+
+    /**
+     * Forwards a single request and its response.
+     *
+     * @return whether the client connection can be reused
+     */
+    private boolean forward(Socket client, InputStream in, OutputStream out, MessageHead request, String path, Upstream upstream) throws IOException {
+        requests.incrementAndGet();
+        delay();
+
+        boolean expectContinue = "100-continue".equalsIgnoreCase(request.header("Expect"));
+        if (roll(profile.resetProbability())) {
+            resets.incrementAndGet();
+            reset(client);
+            return false;
+        }
+
+        if (roll(profile.slowDownProbability())) {
+            slowDowns.incrementAndGet();
+            if (expectContinue) {
+                // The client will not send the body, so the connection cannot be reused
+                sendSlowDown(out, true);
+                return false;
+            }
+            copyBody(in, request, OutputStream.nullOutputStream(), false);
+            sendSlowDown(out, false);
+            return !request.hasToken("Connection", "close");
+        }
+
+        if (expectContinue) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        }
+        // Bodies are streamed in both directions, so the client sees the target's timing rather than the proxy's
+        upstream.sendHead(
+                request.withStartLine(request.method() + " " + path + " HTTP/1.1")
+                        .withoutHeaders("Expect", "Proxy-Connection", "Proxy-Authorization")
+                        .toBytes()
+        );
+        copyBody(in, request, upstream.out, false);
+        upstream.out.flush();
+        MessageHead response = upstream.readResponse();
+
+        boolean head = request.method().equals("HEAD");
+        boolean untilClose = !head
+                && response.status() != 204 && response.status() != 304
+                && response.header("Content-Length") == null
+                && !response.hasToken("Transfer-Encoding", "chunked");
+
+        out.write(response.toBytes());
+        if (!head) {
+            OutputStream body = roll(profile.truncateProbability()) ? new TruncatingOutputStream(out, truncationLimit(response)) : out;
+            try {
+                copyBody(upstream.in, response, body, untilClose);
+            } catch (BodyTruncatedException e) {
+                // The rest of the response is never read, so the target connection is closed along with the client's
+                truncations.incrementAndGet();
+                out.flush();
+                return false;
+            }
+        }
+        out.flush();
+
+        return !untilClose
+                && !response.hasToken("Connection", "close")
+                && !request.hasToken("Connection", "close");
+    }
+
+    /**
+     * Number of body bytes to pass on before cutting off a response. Bodies of unknown length are cut within their
+     * first {@value #BUFFER_SIZE} bytes, or passed on complete if they are shorter.
+     */
+    private long truncationLimit(MessageHead response) {
+        String contentLength = response.header("Content-Length");
+        long length = contentLength == null ? BUFFER_SIZE : Long.parseLong(contentLength.trim());
+        if (length <= 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return random.nextLong(length);
+        }
+    }
+
+    private void tunnel(Socket client, InputStream in, OutputStream out, MessageHead request) throws IOException {
+        tunnels.incrementAndGet();
+        delay();
+
+        if (roll(profile.resetProbability())) {
+            resets.incrementAndGet();
+            reset(client);
+            return;
+        }
+
+        Upstream upstream = connect(out, request.target(), 443);
+        if (upstream == null) {
+            return;
+        }
+        try (upstream) {
+            out.write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            executor.execute(() -> {
+                try {
+                    in.transferTo(upstream.out);
+                    upstream.out.flush();
+                    upstream.socket.shutdownOutput();
+                } catch (IOException e) {
+                    LOG.debug("Tunnel closed", e);
+                }
+            });
+            upstream.in.transferTo(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Connects to the target of a request.
+     *
+     * @return the connection, or {@code null} if the target is unreachable and the client was sent a
+     * {@code 502 Bad Gateway} instead
+     */
+    @Nullable
+    private Upstream connect(OutputStream out, String authority, int defaultPort) throws IOException {
+        try {
+            return new Upstream(authority, defaultPort, profile.bandwidthBytesPerSec());
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.debug("Could not connect to {}", authority, e);
+            sendError(out, 502, "Bad Gateway", "Could not connect to " + authority + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void delay() throws IOException {
+        Duration latency;
+        synchronized (random) {
+            latency = profile.sampleLatency(random);
+        }
+        if (latency.isZero()) {
+            return;
+        }
+
+        delayNanos.addAndGet(latency.toNanos());
+        try {
+            TimeUnit.NANOSECONDS.sleep(latency.toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private boolean roll(double probability) {
+        if (probability <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < probability;
+        }
+    }
+
+    private static void reset(Socket socket) throws IOException {
+        // A zero linger timeout makes close() send a RST instead of a FIN
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+
+    private static void sendSlowDown(OutputStream out, boolean close) throws IOException {
+        String head = "HTTP/1.1 503 Slow Down\r\n" +
+                "Content-Type: application/xml\r\n" +
+                "Content-Length: " + SLOW_DOWN_BODY.length + "\r\n" +
+                (close ? "Connection: close\r\n" : "") +
+                "\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(SLOW_DOWN_BODY);
+        out.flush();
+    }
+
+    private static void sendError(OutputStream out, int status, String reason, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Copies a message body, keeping its transfer encoding so it is passed on unchanged.
+     */
+    private static void copyBody(InputStream in, MessageHead head, OutputStream out, boolean untilClose) throws IOException {
+        if (head.hasToken("Transfer-Encoding", "chunked")) {
+            while (true) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new IOException("Unexpected end of chunked body");
+                }
+                out.write((sizeLine + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+                int extension = sizeLine.indexOf(';');
+                long size = Long.parseLong((extension == -1 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+                if (size == 0) {
+                    // Trailers up to and including the terminating empty line
+                    String trailer;
+                    do {
+                        trailer = readLine(in);
+                        if (trailer == null) {
+                            throw new IOException("Unexpected end of chunked body");
+                        }
+                        out.write((trailer + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    } while (!trailer.isEmpty());
+                    return;
+                }
+
+                // Chunk data and its CRLF
+                copyExactly(in, out, size + 2);
+            }
+        }
+
+        String contentLength = head.header("Content-Length");
+        if (contentLength != null) {
+            copyExactly(in, out, Long.parseLong(contentLength.trim()));
+        } else if (untilClose) {
+            in.transferTo(out);
+        }
+    }
+
+    private static void copyExactly(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(length, BUFFER_SIZE)];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (n == -1) {
+                throw new IOException("Unexpected end of body");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Reads a line terminated by CRLF or LF.
+     *
+     * @return the line without terminator, or {@code null} at the end of the stream
+     */
+    private static @Nullable String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new IOException("Unexpected end of line");
+            }
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            line.write(b);
+        }
+    }
+
+    private static void closeQuietly(@Nullable AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                LOG.debug("Could not close", e);
+            }
+        }
+    }
+
+    /**
+     * Request or status line followed by the raw header lines.
+     */
+    private record MessageHead(String startLine, List<String> headerLines) {
+        static @Nullable MessageHead read(InputStream in) throws IOException {
+            String startLine = readLine(in);
+            if (startLine == null) {
+                return null;
+            }
+
+            List<String> headerLines = new ArrayList<>();
+            while (true) {
+                String line = readLine(in);
+                if (line == null) {
+                    throw new IOException("Unexpected end of message head");
+                }
+                if (line.isEmpty()) {
+                    return new MessageHead(startLine, headerLines);
+                }
+                headerLines.add(line);
+            }
+        }
+
+        String method() {
+            return startLine.substring(0, Math.max(0, startLine.indexOf(' ')));
+        }
+
+        String target() {
+            String[] parts = startLine.split(" ", 3);
+            return parts.length > 1 ? parts[1] : "";
+        }
+
+        int status() {
+            String[] parts = startLine.split(" ", 3);
+            return parts.length > 1 ? Integer.parseInt(parts[1]) : -1;
+        }
+
+        @Nullable String header(String name) {
+            for (String line : headerLines) {
+                int colon = line.indexOf(':');
+                if (colon == name.length() && line.regionMatches(true, 0, name, 0, colon)) {
+                    return line.substring(colon + 1).trim();
+                }
+            }
+            return null;
+        }
+
+        boolean hasToken(String name, String token) {
+            String value = header(name);
+            if (value == null) {
+                return false;
+            }
+            for (String t : value.split(",")) {
+                if (t.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        MessageHead withStartLine(String line) {
+            return new MessageHead(line, headerLines);
+        }
+
+        MessageHead withoutHeaders(String... names) {
+            List<String> lines = new ArrayList<>(headerLines.size());
+            outer:
+            for (String line : headerLines) {
+                String lower = line.toLowerCase(Locale.ROOT);
+                for (String name : names) {
+                    if (lower.startsWith(name.toLowerCase(Locale.ROOT) + ":")) {
+                        continue outer;
+                    }
+                }
+                lines.add(line);
+            }
+            return new MessageHead(startLine, lines);
+        }
+
+        byte[] toBytes() {
+            StringBuilder sb = new StringBuilder(startLine).append("\r\n");
+            for (String line : headerLines) {
+                sb.append(line).append("\r\n");
+            }
+            return sb.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Connection from the proxy to the target, kept open across requests of the same client connection.
+     */
+    private static class Upstream implements AutoCloseable {
+        private final String authority;
+        private final int defaultPort;
+        private final long bytesPerSec;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private int requests;
+
+        private Upstream(String authority, int defaultPort, long bytesPerSec) throws IOException {
+            this.authority = authority;
+            this.defaultPort = defaultPort;
+            this.bytesPerSec = bytesPerSec;
+            connect();
+        }
+
+        private void connect() throws IOException {
+            URI uri = URI.create("//" + authority);
+            int port = uri.getPort() == -1 ? defaultPort : uri.getPort();
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(uri.getHost(), port), CONNECT_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                this.in = new BufferedInputStream(s.getInputStream(), BUFFER_SIZE);
+                this.out = new ThrottledOutputStream(s.getOutputStream(), bytesPerSec);
+                this.socket = s;
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Sends the head of a request, whose body is then written to {@link #out}. A reused connection that the target
+         * has closed while it was idle is replaced first. Once any byte of a request has been written it is never
+         * resent, since the target may already have processed it.
+         */
+        void sendHead(byte[] head) throws IOException {
+            if (requests++ > 0 && isClosedByTarget()) {
+                LOG.debug("Reconnecting to {}", authority);
+                socket.close();
+                connect();
+            }
+            out.write(head);
+        }
+
+        /**
+         * Reads the head of the final response, skipping interim 1xx responses.
+         */
+        MessageHead readResponse() throws IOException {
+            MessageHead response;
+            do {
+                response = MessageHead.read(in);
+            } while (response != null && response.status() >= 100 && response.status() < 200);
+
+            if (response == null) {
+                throw new IOException("Upstream closed the connection without a response");
+            }
+            return response;
+        }
+
+        /**
+         * Whether an idle connection was closed by the target, or received unsolicited data such as a 408 response,
+         * and so cannot carry another request.
+         */
+        private boolean isClosedByTarget() throws IOException {
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Passes on the first {@code limit} bytes written to it and then fails with {@link BodyTruncatedException}, so
+     * that the rest of a cut off body is not read from the target.
+     */
+    private static class TruncatingOutputStream extends FilterOutputStream {
+        private long remaining;
+
+        private TruncatingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                out.write(b, off, (int) remaining);
+                remaining = 0;
+                throw new BodyTruncatedException();
+            }
+            out.write(b, off, len);
+            remaining -= len;
+        }
+    }
+
+    private static class BodyTruncatedException extends IOException {
+    }
+
+    /**
+     * Paces writes so that the average rate does not exceed the configured number of bytes per second.
+     */
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final long bytesPerSec;
+        private final int chunkSize;
+        private long nextWriteNanos = System.nanoTime();
+
+        private ThrottledOutputStream(OutputStream out, long bytesPerSec) {
+            super(out);
+            this.bytesPerSec = bytesPerSec;
+            // Roughly ten writes per second keeps the rate smooth without excessive wake-ups
+            this.chunkSize = (int) Math.max(1, Math.min(BUFFER_SIZE, bytesPerSec / 10));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (bytesPerSec <= 0) {
+                out.write(b, off, len);
+                return;
+            }
+
+            while (len > 0) {
+                int n = Math.min(len, chunkSize);
+                out.write(b, off, n);
+                out.flush();
+                off += n;
+                len -= n;
+
+                long now = System.nanoTime();
+                // Idle time does not accumulate into a burst allowance
+                nextWriteNanos = Math.max(nextWriteNanos, now) + n * 1_000_000_000L / bytesPerSec;
+                try {
+                    TimeUnit.NANOSECONDS.sleep(nextWriteNanos - now);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+}
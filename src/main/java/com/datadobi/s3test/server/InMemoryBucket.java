@@ -0,0 +1,212 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.util.Utf8Order;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A bucket of {@link InMemoryS3Server}. Keys are kept in UTF-8 binary order so listings need no sorting.
+ */
+class InMemoryBucket {
+    private final String name;
+    private final Instant creationDate = Instant.now();
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>(Utf8Order.COMPARATOR);
+    private final ConcurrentMap<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+    InMemoryBucket(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    Instant creationDate() {
+        return creationDate;
+    }
+
+    ConcurrentSkipListMap<String, StoredObject> objects() {
+        return objects;
+    }
+
+    ConcurrentMap<String, MultipartUpload> uploads() {
+        return uploads;
+    }
+
+    /**
+     * Lists keys starting with {@code prefix} that sort after {@code after}, rolling up keys that contain
+     * {@code delimiter} after the prefix into common prefixes.
+     */
+    Listing list(String prefix, @Nullable String delimiter, @Nullable String after, int maxKeys) {
+        if (maxKeys <= 0) {
+            return new Listing(List.of(), List.of(), false, null);
+        }
+
+        Map.Entry<String, StoredObject> entry;
+        if (after != null && Utf8Order.compare(after, prefix) >= 0) {
+            entry = objects.higherEntry(after);
+        } else {
+            entry = objects.ceilingEntry(prefix);
+        }
+
+        List<Map.Entry<String, StoredObject>> contents = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        String last = null;
+        boolean truncated = false;
+        while (entry != null) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                // Keys sharing a prefix are contiguous in the map
+                break;
+            }
+
+            String commonPrefix = null;
+            if (delimiter != null && !delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index != -1) {
+                    commonPrefix = key.substring(0, index + delimiter.length());
+                    if (after != null && Utf8Order.compare(commonPrefix, after) <= 0) {
+                        // Returned on a previous page
+                        entry = entryAfterPrefix(commonPrefix);
+                        continue;
+                    }
+                }
+            }
+
+            if (contents.size() + commonPrefixes.size() >= maxKeys) {
+                truncated = true;
+                break;
+            }
+
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                last = commonPrefix;
+                entry = entryAfterPrefix(commonPrefix);
+            } else {
+                contents.add(Map.entry(key, entry.getValue()));
+                last = key;
+                entry = objects.higherEntry(key);
+            }
+        }
+
+        return new Listing(contents, commonPrefixes, truncated, last);
+    }
+
+    /**
+     * The first entry whose key does not start with {@code prefix}, skipping all keys rolled up into it in a single
+     * lookup, so that delimiter listings do not walk the keys below each common prefix.
+     */
+    private @Nullable Map.Entry<String, StoredObject> entryAfterPrefix(String prefix) {
+        String end = prefixEnd(prefix);
+        if (end != null) {
+            return objects.ceilingEntry(end);
+        }
+
+        Map.Entry<String, StoredObject> entry = objects.higherEntry(prefix);
+        while (entry != null && entry.getKey().startsWith(prefix)) {
+            entry = objects.higherEntry(entry.getKey());
+        }
+        return entry;
+    }
+
+    /**
+     * The smallest string in {@link Utf8Order} that sorts after every string starting with {@code prefix}, or
+     * {@code null} if incrementing the last character would not give one.
+     */
+    private static @Nullable String prefixEnd(String prefix) {
+        char c = prefix.charAt(prefix.length() - 1);
+        char next;
+        if (c == '\uD7FF') {
+            next = '\uE000';
+        } else if (c == '\uFFFF') {
+            // Surrogates sort after all other BMP characters
+            next = '\uD800';
+        } else if (c == '\uDBFF' || c == '\uDFFF') {
+            return null;
+        } else {
+            next = (char) (c + 1);
+        }
+        return prefix.substring(0, prefix.length() - 1) + next;
+    }
+
+    /**
+     * @param last the last key or common prefix in this page, from which the next page continues
+     */
+    record Listing(List<Map.Entry<String, StoredObject>> contents, List<String> commonPrefixes, boolean truncated, @Nullable String last) {
+    }
+
+    static class MultipartUpload {
+        private final String key;
+        private final String uploadId;
+        private final Instant initiated = Instant.now();
+        private final String contentType;
+        private final @Nullable String contentEncoding;
+        private final Map<String, String> metadata;
+        private final ConcurrentSkipListMap<Integer, Part> parts = new ConcurrentSkipListMap<>();
+
+        MultipartUpload(String key, String uploadId, String contentType, @Nullable String contentEncoding, Map<String, String> metadata) {
+            this.key = key;
+            this.uploadId = uploadId;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.metadata = metadata;
+        }
+
+        String key() {
+            return key;
+        }
+
+        String uploadId() {
+            return uploadId;
+        }
+
+        Instant initiated() {
+            return initiated;
+        }
+
+        String contentType() {
+            return contentType;
+        }
+
+        @Nullable
+        String contentEncoding() {
+            return contentEncoding;
+        }
+
+        Map<String, String> metadata() {
+            return metadata;
+        }
+
+        ConcurrentSkipListMap<Integer, Part> parts() {
+            return parts;
+        }
+    }
+
+    record Part(byte[] data, String eTag, Map<String, String> checksums) {
+    }
+}
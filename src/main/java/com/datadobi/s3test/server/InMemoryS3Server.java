@@ -0,0 +1,1052 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.http.ContentRange;
+import com.datadobi.s3test.http.Range;
+import com.datadobi.s3test.http.RangeSpec;
+import com.datadobi.s3test.s3.AddressingStyle;
+import com.datadobi.s3test.s3.S3Error;
+import com.datadobi.s3test.s3.ServiceDefinition;
+import com.datadobi.s3test.util.Utf8Order;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An S3 compatible server that keeps all data in memory, for running the suite without a live endpoint.
+ * <p>
+ * Implements the operations used by the tests: buckets, Put/Get/Head/Copy/Delete/DeleteObjects, ListObjects V1 and
+ * V2 with prefix, delimiter and URL encoding, multipart uploads, conditional writes and reads, ranges and additional
+ * checksums. Keys are listed in UTF-8 binary order and must be strictly valid UTF-8 without null characters, like
+ * AWS S3. Requests are not authenticated and only path style addressing is supported.
+ * <p>
+ * Because it answers without network or storage latency it also serves as a baseline for the throughput of the
+ * harness itself.
+ */
+public class InMemoryS3Server implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryS3Server.class);
+
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int MAX_KEYS = 1000;
+    private static final int MAX_KEY_BYTES = 1024;
+    private static final String DEFAULT_CONTENT_TYPE = "binary/octet-stream";
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private static InMemoryS3Server shared;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentSkipListMap<String, InMemoryBucket> buckets = new ConcurrentSkipListMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public InMemoryS3Server() throws IOException {
+        this(0);
+    }
+
+    public InMemoryS3Server(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * The server used for {@code inmem://} service URIs, started on first use.
+     */
+    public static synchronized InMemoryS3Server shared() throws IOException {
+        if (shared == null) {
+            InMemoryS3Server server = new InMemoryS3Server();
+            server.start();
+            shared = server;
+        }
+        return shared;
+    }
+
+    public void start() {
+        // The dispatcher thread inherits the daemon flag of the thread that starts the server, so starting it from a
+        // daemon thread prevents an idle server from keeping the JVM alive
+        Thread starter = new Thread(server::start, "inmem-s3-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public String host() {
+        return server.getAddress().getAddress().getHostAddress();
+    }
+
+    public URI endpoint() {
+        return URI.create("http://" + host() + ":" + port());
+    }
+
+    /**
+     * A service definition for this server, for an existing bucket or, if {@code bucket} is {@code null}, for a
+     * bucket per test.
+     */
+    public ServiceDefinition serviceDefinition(@Nullable String bucket) {
+        ServiceDefinition.Builder builder = ServiceDefinition.builder();
+        builder.host(host());
+        builder.port(port());
+        builder.useEncryption(false);
+        builder.addressingStyle(AddressingStyle.PATH);
+        builder.accessKeyId("inmem");
+        builder.secretAccessKey("inmem");
+
+        if (bucket != null) {
+            createBucket(bucket);
+            builder.withExistingBucket(bucket);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates a bucket if it doesn't exist yet.
+     */
+    public void createBucket(String name) {
+        buckets.computeIfAbsent(name, InMemoryBucket::new);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange http) throws IOException {
+        http.getResponseHeaders().set("x-amz-request-id", Long.toHexString(requestIds.incrementAndGet()));
+        try {
+            dispatch(S3Request.parse(http));
+        } catch (S3ServerException e) {
+            HttpResponses.sendError(http, e.error().getStatusCode(), e.error().getErrorCode(), e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to handle {} {}", http.getRequestMethod(), http.getRequestURI(), e);
+            HttpResponses.sendError(http, 500, S3Error.InternalError.getErrorCode(), String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void dispatch(S3Request request) throws IOException {
+        if (request.bucket() == null) {
+            if (request.method().equals("GET")) {
+                listBuckets(request);
+                return;
+            }
+            throw new S3ServerException(S3Error.MethodNotAllowed, "Unsupported service request");
+        }
+
+        if (request.key() == null) {
+            switch (request.method()) {
+                case "PUT" -> createBucket(request);
+                case "HEAD" -> headBucket(request);
+                case "DELETE" -> deleteBucket(request);
+                case "POST" -> {
+                    if (!request.has("delete")) {
+                        throw notImplemented(request);
+                    }
+                    deleteObjects(request);
+                }
+                case "GET" -> {
+                    if (request.has("versioning")) {
+                        getBucketVersioning(request);
+                    } else if (request.has("location")) {
+                        getBucketLocation(request);
+                    } else if (request.has("uploads")) {
+                        listMultipartUploads(request);
+                    } else if (request.query().keySet().stream().anyMatch(S3Request::isSubresource)) {
+                        throw notImplemented(request);
+                    } else {
+                        listObjects(request);
+                    }
+                }
+                default -> throw new S3ServerException(S3Error.MethodNotAllowed, request.method());
+            }
+            return;
+        }
+
+        if (request.query().keySet().stream().anyMatch(S3Request::isSubresource)) {
+            throw notImplemented(request);
+        }
+
+        switch (request.method()) {
+            case "PUT" -> {
+                if (request.has("uploadId")) {
+                    uploadPart(request);
+                } else if (request.headers().containsKey("x-amz-copy-source")) {
+                    copyObject(request);
+                } else {
+                    putObject(request);
+                }
+            }
+            case "GET", "HEAD" -> {
+                if (request.has("uploadId")) {
+                    throw notImplemented(request);
+                }
+                getObject(request);
+            }
+            case "DELETE" -> {
+                if (request.has("uploadId")) {
+                    abortMultipartUpload(request);
+                } else {
+                    deleteObject(request);
+                }
+            }
+            case "POST" -> {
+                if (request.has("uploads")) {
+                    createMultipartUpload(request);
+                } else if (request.has("uploadId")) {
+                    completeMultipartUpload(request);
+                } else {
+                    throw notImplemented(request);
+                }
+            }
+            default -> throw new S3ServerException(S3Error.MethodNotAllowed, request.method());
+        }
+    }
+
+    // Buckets
+
+    private void listBuckets(S3Request request) throws IOException {
+        int maxBuckets = request.intParameter("max-buckets", Integer.MAX_VALUE);
+        String token = request.query().get("continuation-token");
+        String after = token == null ? null : decodeToken(token);
+
+        XmlBuilder xml = new XmlBuilder("ListAllMyBucketsResult");
+        xml.start("Owner").element("ID", "s3test").element("DisplayName", "s3test").end("Owner");
+        xml.start("Buckets");
+        int count = 0;
+        String next = null;
+        for (InMemoryBucket bucket : (after == null ? buckets : buckets.tailMap(after, false)).values()) {
+            if (count == maxBuckets) {
+                next = encodeToken(bucket.name());
+                break;
+            }
+            xml.start("Bucket")
+                    .element("Name", bucket.name())
+                    .element("CreationDate", isoDate(bucket.creationDate()))
+                    .end("Bucket");
+            count++;
+        }
+        xml.end("Buckets");
+        xml.element("ContinuationToken", next);
+        sendXml(request, 200, xml.build("ListAllMyBucketsResult"));
+    }
+
+    private void createBucket(S3Request request) throws IOException {
+        String name = request.bucket();
+        if (!name.matches("[a-z0-9][a-z0-9.-]{1,61}[a-z0-9]")) {
+            throw new S3ServerException(S3Error.InvalidBucketName, "The specified bucket is not valid");
+        }
+        if (buckets.putIfAbsent(name, new InMemoryBucket(name)) != null) {
+            throw new S3ServerException(S3Error.BucketAlreadyOwnedByYou, "Your previous request to create the named bucket succeeded and you already own it");
+        }
+        request.http().getResponseHeaders().set("Location", "/" + name);
+        HttpResponses.send(request.http(), 200, new byte[0]);
+    }
+
+    private void headBucket(S3Request request) throws IOException {
+        bucket(request);
+        request.http().getResponseHeaders().set("x-amz-bucket-region", "us-east-1");
+        HttpResponses.send(request.http(), 200, new byte[0]);
+    }
+
+    private void deleteBucket(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        if (!bucket.objects().isEmpty() || !bucket.uploads().isEmpty()) {
+            throw new S3ServerException(S3Error.BucketNotEmpty, "The bucket you tried to delete is not empty");
+        }
+        buckets.remove(bucket.name(), bucket);
+        HttpResponses.send(request.http(), 204, new byte[0]);
+    }
+
+    private void getBucketVersioning(S3Request request) throws IOException {
+        bucket(request);
+        sendXml(request, 200, new XmlBuilder("VersioningConfiguration").build("VersioningConfiguration"));
+    }
+
+    private void getBucketLocation(S3Request request) throws IOException {
+        bucket(request);
+        sendXml(request, 200, new XmlBuilder("LocationConstraint").build("LocationConstraint"));
+    }
+
+    private void listObjects(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        boolean v2 = "2".equals(request.query().get("list-type"));
+        String prefix = request.query().getOrDefault("prefix", "");
+        String delimiter = request.query().get("delimiter");
+        int maxKeys = Math.min(request.intParameter("max-keys", MAX_KEYS), MAX_KEYS);
+        boolean urlEncoding = "url".equals(request.query().get("encoding-type"));
+
+        String marker = request.query().get("marker");
+        String startAfter = request.query().get("start-after");
+        String continuationToken = request.query().get("continuation-token");
+        String after;
+        if (v2) {
+            after = continuationToken != null ? decodeToken(continuationToken) : startAfter;
+        } else {
+            after = marker;
+        }
+
+        InMemoryBucket.Listing listing = bucket.list(prefix, delimiter, after, maxKeys);
+
+        XmlBuilder xml = new XmlBuilder("ListBucketResult");
+        xml.element("Name", bucket.name());
+        xml.element("Prefix", encode(prefix, urlEncoding));
+        if (v2) {
+            xml.element("ContinuationToken", continuationToken);
+            xml.element("StartAfter", startAfter == null ? null : encode(startAfter, urlEncoding));
+            xml.element("KeyCount", listing.contents().size() + listing.commonPrefixes().size());
+        } else {
+            xml.element("Marker", encode(marker == null ? "" : marker, urlEncoding));
+            if (listing.truncated() && delimiter != null) {
+                xml.element("NextMarker", encode(listing.last(), urlEncoding));
+            }
+        }
+        xml.element("MaxKeys", maxKeys);
+        xml.element("Delimiter", delimiter == null ? null : encode(delimiter, urlEncoding));
+        xml.element("EncodingType", urlEncoding ? "url" : null);
+        xml.element("IsTruncated", listing.truncated());
+        if (v2 && listing.truncated()) {
+            xml.element("NextContinuationToken", encodeToken(listing.last()));
+        }
+
+        for (Map.Entry<String, StoredObject> entry : listing.contents()) {
+            StoredObject object = entry.getValue();
+            xml.start("Contents")
+                    .element("Key", encode(entry.getKey(), urlEncoding))
+                    .element("LastModified", isoDate(object.lastModified()))
+                    .element("ETag", object.eTag())
+                    .element("Size", object.data().length)
+                    .element("StorageClass", "STANDARD")
+                    .end("Contents");
+        }
+        for (String commonPrefix : listing.commonPrefixes()) {
+            xml.start("CommonPrefixes").element("Prefix", encode(commonPrefix, urlEncoding)).end("CommonPrefixes");
+        }
+
+        sendXml(request, 200, xml.build("ListBucketResult"));
+    }
+
+    private void deleteObjects(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        byte[] body = readPayload(request).data();
+        Document document = parseXml(body);
+        boolean quiet = "true".equals(childText(document.getDocumentElement(), "Quiet"));
+
+        XmlBuilder xml = new XmlBuilder("DeleteResult");
+        for (Element object : childElements(document.getDocumentElement(), "Object")) {
+            String key = childText(object, "Key");
+            String eTag = childText(object, "ETag");
+            if (key == null) {
+                throw new S3ServerException(S3Error.MalformedXML, "Object without Key");
+            }
+
+            if (eTag != null) {
+                StoredObject current = bucket.objects().get(key);
+                if (current != null && (!eTagMatches(eTag, current.eTag()) || !bucket.objects().remove(key, current))) {
+                    xml.start("Error")
+                            .element("Key", key)
+                            .element("Code", S3Error.PreconditionFailed.getErrorCode())
+                            .element("Message", "At least one of the pre-conditions you specified did not hold")
+                            .end("Error");
+                    continue;
+                }
+            } else {
+                bucket.objects().remove(key);
+            }
+
+            if (!quiet) {
+                xml.start("Deleted").element("Key", key).end("Deleted");
+            }
+        }
+
+        sendXml(request, 200, xml.build("DeleteResult"));
+    }
+
+    private void listMultipartUploads(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        String prefix = request.query().getOrDefault("prefix", "");
+        boolean urlEncoding = "url".equals(request.query().get("encoding-type"));
+
+        List<InMemoryBucket.MultipartUpload> uploads = bucket.uploads().values().stream()
+                .filter(u -> u.key().startsWith(prefix))
+                .sorted(Comparator.comparing(InMemoryBucket.MultipartUpload::key, Utf8Order.COMPARATOR)
+                        .thenComparing(InMemoryBucket.MultipartUpload::initiated))
+                .toList();
+
+        XmlBuilder xml = new XmlBuilder("ListMultipartUploadsResult");
+        xml.element("Bucket", bucket.name())
+                .element("KeyMarker", "")
+                .element("UploadIdMarker", "")
+                .element("Prefix", encode(prefix, urlEncoding))
+                .element("MaxUploads", MAX_KEYS)
+                .element("EncodingType", urlEncoding ? "url" : null)
+                .element("IsTruncated", false);
+        for (InMemoryBucket.MultipartUpload upload : uploads) {
+            xml.start("Upload")
+                    .element("Key", encode(upload.key(), urlEncoding))
+                    .element("UploadId", upload.uploadId())
+                    .element("Initiated", isoDate(upload.initiated()))
+                    .element("StorageClass", "STANDARD")
+                    .end("Upload");
+        }
+        sendXml(request, 200, xml.build("ListMultipartUploadsResult"));
+    }
+
+    // Objects
+
+    private void putObject(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        RequestPayload payload = readPayload(request);
+        byte[] data = payload.data();
+        Map<String, String> checksums = checksums(request, payload);
+
+        StoredObject object = new StoredObject(
+                data,
+                Checksums.eTag(data),
+                now(),
+                contentType(request.headers()),
+                contentEncoding(request.headers()),
+                metadata(request.headers()),
+                checksums,
+                List.of()
+        );
+        write(bucket, request.key(), request.headers(), object);
+
+        Headers responseHeaders = request.http().getResponseHeaders();
+        responseHeaders.set("ETag", object.eTag());
+        checksums.forEach((algorithm, value) -> responseHeaders.set("x-amz-checksum-" + algorithm, value));
+        HttpResponses.send(request.http(), 200, new byte[0]);
+    }
+
+    private void copyObject(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        String copySource = request.headers().getFirst("x-amz-copy-source");
+        int query = copySource.indexOf('?');
+        if (query != -1) {
+            copySource = copySource.substring(0, query);
+        }
+        copySource = decodeUtf8(percentDecode(copySource.startsWith("/") ? copySource.substring(1) : copySource));
+        int slash = copySource.indexOf('/');
+        if (slash == -1) {
+            throw new S3ServerException(S3Error.InvalidArgument, "Invalid copy source");
+        }
+
+        InMemoryBucket sourceBucket = buckets.get(copySource.substring(0, slash));
+        if (sourceBucket == null) {
+            throw new S3ServerException(S3Error.NoSuchBucket, "The specified bucket does not exist");
+        }
+        StoredObject source = sourceBucket.objects().get(copySource.substring(slash + 1));
+        if (source == null) {
+            throw new S3ServerException(S3Error.NoSuchKey, "The specified key does not exist.");
+        }
+
+        boolean replace = "REPLACE".equals(request.headers().getFirst("x-amz-metadata-directive"));
+        StoredObject copy = new StoredObject(
+                source.data(),
+                source.eTag(),
+                now(),
+                replace ? contentType(request.headers()) : source.contentType(),
+                replace ? contentEncoding(request.headers()) : source.contentEncoding(),
+                replace ? metadata(request.headers()) : source.metadata(),
+                source.checksums(),
+                source.partSizes()
+        );
+        write(bucket, request.key(), request.headers(), copy);
+
+        XmlBuilder xml = new XmlBuilder("CopyObjectResult")
+                .element("LastModified", isoDate(copy.lastModified()))
+                .element("ETag", copy.eTag());
+        sendXml(request, 200, xml.build("CopyObjectResult"));
+    }
+
+    private void getObject(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        StoredObject object = bucket.objects().get(request.key());
+        if (object == null) {
+            throw new S3ServerException(S3Error.NoSuchKey, "The specified key does not exist.");
+        }
+
+        Headers requestHeaders = request.headers();
+        Headers responseHeaders = request.http().getResponseHeaders();
+
+        String ifMatch = requestHeaders.getFirst("If-Match");
+        if (ifMatch != null && !eTagMatches(ifMatch, object.eTag())) {
+            throw new S3ServerException(S3Error.PreconditionFailed, "At least one of the pre-conditions you specified did not hold");
+        }
+        String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null && eTagMatches(ifNoneMatch, object.eTag())) {
+            responseHeaders.set("ETag", object.eTag());
+            HttpResponses.send(request.http(), 304, new byte[0]);
+            return;
+        }
+
+        byte[] data = object.data();
+        long start = 0;
+        long end = data.length - 1L;
+        boolean partial = false;
+
+        String partNumberParameter = request.query().get("partNumber");
+        if (partNumberParameter != null) {
+            int partNumber = request.intParameter("partNumber", 1);
+            List<Long> partSizes = object.partSizes().isEmpty() ? List.of((long) data.length) : object.partSizes();
+            if (partNumber < 1 || partNumber > partSizes.size()) {
+                throw new S3ServerException(S3Error.InvalidRange, "The requested partnumber is not satisfiable");
+            }
+            start = partSizes.subList(0, partNumber - 1).stream().mapToLong(Long::longValue).sum();
+            end = start + partSizes.get(partNumber - 1) - 1;
+            partial = data.length > 0;
+            if (!object.partSizes().isEmpty()) {
+                responseHeaders.set("x-amz-mp-parts-count", Integer.toString(partSizes.size()));
+            }
+        } else {
+            Range range = Range.parseRange(requestHeaders.getFirst("Range"));
+            if (range != null && range.unit().equals("bytes")) {
+                RangeSpec spec = range.rangeSpecs().get(0);
+                boolean satisfiable = true;
+                if (spec.start() == null) {
+                    start = Math.max(0, data.length - spec.end());
+                    satisfiable = spec.end() > 0 && data.length > 0;
+                    partial = true;
+                } else if (spec.end() == null || spec.end() >= spec.start()) {
+                    start = spec.start();
+                    end = spec.end() == null ? data.length - 1L : Math.min(spec.end(), data.length - 1L);
+                    satisfiable = start < data.length;
+                    partial = true;
+                }
+                // Syntactically invalid ranges are ignored
+
+                if (!satisfiable) {
+                    responseHeaders.set("Content-Range", new ContentRange("bytes", null, null, (long) data.length).toString());
+                    throw new S3ServerException(S3Error.InvalidRange, "The requested range is not satisfiable");
+                }
+            }
+        }
+
+        objectHeaders(responseHeaders, object, !partial && "ENABLED".equals(requestHeaders.getFirst("x-amz-checksum-mode")));
+
+        if (partial) {
+            responseHeaders.set("Content-Range", new ContentRange("bytes", start, end, (long) data.length).toString());
+            HttpResponses.send(request.http(), 206, Arrays.copyOfRange(data, (int) start, (int) end + 1));
+        } else {
+            HttpResponses.send(request.http(), 200, data);
+        }
+    }
+
+    private void deleteObject(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        String ifMatch = request.headers().getFirst("If-Match");
+        if (ifMatch != null) {
+            bucket.objects().compute(request.key(), (key, current) -> {
+                if (current == null) {
+                    throw new S3ServerException(S3Error.NoSuchKey, "The specified key does not exist.");
+                }
+                if (!eTagMatches(ifMatch, current.eTag())) {
+                    throw new S3ServerException(S3Error.PreconditionFailed, "At least one of the pre-conditions you specified did not hold");
+                }
+                return null;
+            });
+        } else {
+            bucket.objects().remove(request.key());
+        }
+        HttpResponses.send(request.http(), 204, new byte[0]);
+    }
+
+    // Multipart uploads
+
+    private void createMultipartUpload(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        InMemoryBucket.MultipartUpload upload = new InMemoryBucket.MultipartUpload(
+                request.key(),
+                UUID.randomUUID().toString(),
+                contentType(request.headers()),
+                contentEncoding(request.headers()),
+                metadata(request.headers())
+        );
+        bucket.uploads().put(upload.uploadId(), upload);
+
+        XmlBuilder xml = new XmlBuilder("InitiateMultipartUploadResult")
+                .element("Bucket", bucket.name())
+                .element("Key", upload.key())
+                .element("UploadId", upload.uploadId());
+        sendXml(request, 200, xml.build("InitiateMultipartUploadResult"));
+    }
+
+    private void uploadPart(S3Request request) throws IOException {
+        InMemoryBucket.MultipartUpload upload = upload(request);
+        int partNumber = request.intParameter("partNumber", -1);
+        if (partNumber < 1 || partNumber > 10000) {
+            throw new S3ServerException(S3Error.InvalidArgument, "Part number must be an integer between 1 and 10000, inclusive");
+        }
+        if (request.headers().containsKey("x-amz-copy-source")) {
+            throw notImplemented(request);
+        }
+
+        RequestPayload payload = readPayload(request);
+        Map<String, String> checksums = checksums(request, payload);
+        InMemoryBucket.Part part = new InMemoryBucket.Part(payload.data(), Checksums.eTag(payload.data()), checksums);
+        upload.parts().put(partNumber, part);
+
+        Headers responseHeaders = request.http().getResponseHeaders();
+        responseHeaders.set("ETag", part.eTag());
+        checksums.forEach((algorithm, value) -> responseHeaders.set("x-amz-checksum-" + algorithm, value));
+        HttpResponses.send(request.http(), 200, new byte[0]);
+    }
+
+    private void completeMultipartUpload(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        InMemoryBucket.MultipartUpload upload = upload(request);
+        Document document = parseXml(readPayload(request).data());
+
+        List<Element> requestedParts = childElements(document.getDocumentElement(), "Part");
+        if (requestedParts.isEmpty()) {
+            throw new S3ServerException(S3Error.MalformedXML, "The XML you provided was not well-formed or did not validate against our published schema");
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream partDigests = new ByteArrayOutputStream();
+        List<Long> partSizes = new ArrayList<>();
+        int previousPartNumber = 0;
+        for (int i = 0; i < requestedParts.size(); i++) {
+            Element requestedPart = requestedParts.get(i);
+            int partNumber;
+            try {
+                partNumber = Integer.parseInt(String.valueOf(childText(requestedPart, "PartNumber")));
+            } catch (NumberFormatException e) {
+                throw new S3ServerException(S3Error.MalformedXML, "Invalid part number");
+            }
+            if (partNumber <= previousPartNumber) {
+                throw new S3ServerException(S3Error.InvalidPartOrder, "The list of parts was not in ascending order");
+            }
+            previousPartNumber = partNumber;
+
+            InMemoryBucket.Part part = upload.parts().get(partNumber);
+            String eTag = childText(requestedPart, "ETag");
+            if (part == null || eTag == null || !eTagMatches(eTag, part.eTag())) {
+                throw new S3ServerException(S3Error.InvalidPart, "One or more of the specified parts could not be found");
+            }
+            if (i < requestedParts.size() - 1 && part.data().length < MIN_PART_SIZE) {
+                throw new S3ServerException(S3Error.EntityTooSmall, "Your proposed upload is smaller than the minimum allowed object size");
+            }
+
+            data.write(part.data());
+            partDigests.write(HexFormat.of().parseHex(unquote(part.eTag())));
+            partSizes.add((long) part.data().length);
+        }
+
+        String eTag = "\"" + HexFormat.of().formatHex(Checksums.digest("MD5", partDigests.toByteArray())) + "-" + partSizes.size() + "\"";
+        StoredObject object = new StoredObject(
+                data.toByteArray(),
+                eTag,
+                now(),
+                upload.contentType(),
+                upload.contentEncoding(),
+                upload.metadata(),
+                Map.of(),
+                List.copyOf(partSizes)
+        );
+        write(bucket, upload.key(), request.headers(), object);
+        bucket.uploads().remove(upload.uploadId());
+
+        XmlBuilder xml = new XmlBuilder("CompleteMultipartUploadResult")
+                .element("Location", "/" + bucket.name() + "/" + upload.key())
+                .element("Bucket", bucket.name())
+                .element("Key", upload.key())
+                .element("ETag", eTag);
+        sendXml(request, 200, xml.build("CompleteMultipartUploadResult"));
+    }
+
+    private void abortMultipartUpload(S3Request request) throws IOException {
+        InMemoryBucket bucket = bucket(request);
+        InMemoryBucket.MultipartUpload upload = upload(request);
+        bucket.uploads().remove(upload.uploadId());
+        HttpResponses.send(request.http(), 204, new byte[0]);
+    }
+
+    // Helpers
+
+    private InMemoryBucket bucket(S3Request request) {
+        InMemoryBucket bucket = buckets.get(request.bucket());
+        if (bucket == null) {
+            throw new S3ServerException(S3Error.NoSuchBucket, "The specified bucket does not exist");
+        }
+        return bucket;
+    }
+
+    private InMemoryBucket.MultipartUpload upload(S3Request request) {
+        InMemoryBucket.MultipartUpload upload = bucket(request).uploads().get(request.query().get("uploadId"));
+        if (upload == null || !upload.key().equals(request.key())) {
+            throw new S3ServerException(S3Error.NoSuchUpload, "The specified upload does not exist");
+        }
+        return upload;
+    }
+
+    /**
+     * Stores an object, honouring {@code If-Match} and {@code If-None-Match} atomically.
+     */
+    private static void write(InMemoryBucket bucket, String key, Headers headers, StoredObject object) {
+        String ifMatch = headers.getFirst("If-Match");
+        String ifNoneMatch = headers.getFirst("If-None-Match");
+        if (ifMatch == null && ifNoneMatch == null) {
+            bucket.objects().put(key, object);
+            return;
+        }
+
+        bucket.objects().compute(key, (k, current) -> {
+            if (ifMatch != null) {
+                if (current == null) {
+                    throw new S3ServerException(S3Error.NoSuchKey, "The specified key does not exist.");
+                }
+                if (!eTagMatches(ifMatch, current.eTag())) {
+                    throw new S3ServerException(S3Error.PreconditionFailed, "At least one of the pre-conditions you specified did not hold");
+                }
+            }
+            if (ifNoneMatch != null && current != null && eTagMatches(ifNoneMatch, current.eTag())) {
+                throw new S3ServerException(S3Error.PreconditionFailed, "At least one of the pre-conditions you specified did not hold");
+            }
+            return object;
+        });
+    }
+
+    private static RequestPayload readPayload(S3Request request) throws IOException {
+        byte[] body = request.http().getRequestBody().readAllBytes();
+        RequestPayload payload = RequestPayload.decode(request.headers(), body);
+
+        String contentMd5 = request.headers().getFirst("Content-MD5");
+        if (contentMd5 != null && !contentMd5.equals(Base64.getEncoder().encodeToString(Checksums.digest("MD5", payload.data())))) {
+            throw new S3ServerException(S3Error.BadDigest, "The Content-MD5 you specified did not match what we received");
+        }
+        return payload;
+    }
+
+    /**
+     * Verifies the additional checksums sent as headers or trailers, and computes the one requested with
+     * {@code x-amz-sdk-checksum-algorithm} if it wasn't sent.
+     */
+    private static Map<String, String> checksums(S3Request request, RequestPayload payload) {
+        Map<String, String> checksums = new HashMap<>();
+        for (String algorithm : Checksums.ALGORITHMS) {
+            String name = "x-amz-checksum-" + algorithm;
+            String value = request.headers().getFirst(name);
+            if (value == null) {
+                value = payload.trailers().get(name);
+            }
+            if (value == null) {
+                continue;
+            }
+
+            String computed = Checksums.compute(algorithm, payload.data());
+            if (computed != null && !computed.equals(value)) {
+                throw new S3ServerException(S3Error.BadDigest, "The " + algorithm.toUpperCase(Locale.ROOT) + " you specified did not match the calculated checksum");
+            }
+            checksums.put(algorithm, value);
+        }
+
+        String requested = request.headers().getFirst("x-amz-sdk-checksum-algorithm");
+        if (requested != null) {
+            String algorithm = requested.replace("_", "").toLowerCase(Locale.ROOT);
+            if (!checksums.containsKey(algorithm)) {
+                String computed = Checksums.compute(algorithm, payload.data());
+                if (computed != null) {
+                    checksums.put(algorithm, computed);
+                }
+            }
+        }
+        return Map.copyOf(checksums);
+    }
+
+    private static void objectHeaders(Headers headers, StoredObject object, boolean includeChecksums) {
+        headers.set("ETag", object.eTag());
+        headers.set("Last-Modified", HTTP_DATE.format(object.lastModified()));
+        headers.set("Content-Type", object.contentType());
+        headers.set("Accept-Ranges", "bytes");
+        if (object.contentEncoding() != null) {
+            headers.set("Content-Encoding", object.contentEncoding());
+        }
+        object.metadata().forEach((name, value) -> headers.set("x-amz-meta-" + name, value));
+        if (includeChecksums) {
+            object.checksums().forEach((algorithm, value) -> headers.set("x-amz-checksum-" + algorithm, value));
+        }
+    }
+
+    private static String contentType(Headers headers) {
+        String contentType = headers.getFirst("Content-Type");
+        return contentType == null ? DEFAULT_CONTENT_TYPE : contentType;
+    }
+
+    @Nullable
+    private static String contentEncoding(Headers headers) {
+        String contentEncoding = headers.getFirst("Content-Encoding");
+        if (contentEncoding == null) {
+            return null;
+        }
+        // aws-chunked only describes the transfer of the request body
+        return Arrays.stream(contentEncoding.split(","))
+                .map(String::trim)
+                .filter(e -> !e.isEmpty() && !e.equalsIgnoreCase("aws-chunked"))
+                .reduce((a, b) -> a + "," + b)
+                .orElse(null);
+    }
+
+    private static Map<String, String> metadata(Headers headers) {
+        Map<String, String> metadata = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (name.startsWith("x-amz-meta-") && !header.getValue().isEmpty()) {
+                metadata.put(name.substring("x-amz-meta-".length()), header.getValue().get(0));
+            }
+        }
+        return Map.copyOf(metadata);
+    }
+
+    private static boolean eTagMatches(String condition, String eTag) {
+        for (String candidate : condition.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || unquote(candidate).equals(unquote(eTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unquote(String eTag) {
+        if (eTag.startsWith("W/")) {
+            eTag = eTag.substring(2);
+        }
+        if (eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"")) {
+            eTag = eTag.substring(1, eTag.length() - 1);
+        }
+        return eTag;
+    }
+
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    private static String isoDate(Instant instant) {
+        return DateTimeFormatter.ISO_INSTANT.format(instant.truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    private static String encode(String value, boolean urlEncoding) {
+        return urlEncoding ? URLEncoder.encode(value, StandardCharsets.UTF_8) : value;
+    }
+
+    private static String encodeToken(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeToken(String token) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new S3ServerException(S3Error.InvalidArgument, "The continuation token provided is incorrect");
+        }
+    }
+
+    private static void sendXml(S3Request request, int status, byte[] xml) throws IOException {
+        request.http().getResponseHeaders().set("Content-Type", "application/xml");
+        HttpResponses.send(request.http(), status, xml);
+    }
+
+    private static S3ServerException notImplemented(S3Request request) {
+        return new S3ServerException(S3Error.NotImplemented, "Not supported by the in-memory server: " + request.method() + " " + request.http().getRequestURI());
+    }
+
+    private static Document parseXml(byte[] xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new S3ServerException(S3Error.MalformedXML, "The XML you provided was not well-formed or did not validate against our published schema");
+        }
+    }
+
+    private static List<Element> childElements(Element parent, String name) {
+        List<Element> elements = new ArrayList<>();
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child instanceof Element element && element.getTagName().equals(name)) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    @Nullable
+    private static String childText(Element parent, String name) {
+        List<Element> elements = childElements(parent, name);
+        return elements.isEmpty() ? null : elements.get(0).getTextContent().trim();
+    }
+
+    static byte[] percentDecode(String raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length());
+        int i = 0;
+        while (i < raw.length()) {
+            char c = raw.charAt(i);
+            if (c == '%') {
+                try {
+                    out.write(HexFormat.fromHexDigits(raw, i + 1, i + 3));
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    throw new S3ServerException(S3Error.InvalidURI, "Couldn't parse the specified URI.");
+                }
+                i += 3;
+            } else {
+                int codePoint = raw.codePointAt(i);
+                out.writeBytes(new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8));
+                i += Character.charCount(codePoint);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static String decodeUtf8(byte[] bytes) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            throw new S3ServerException(S3Error.InvalidURI, "Couldn't parse the specified URI.");
+        }
+    }
+
+    /**
+     * A request split into bucket, key and decoded query parameters.
+     */
+    private record S3Request(HttpExchange http, String method, @Nullable String bucket, @Nullable String key, Map<String, String> query) {
+        private static final List<String> SUBRESOURCES = List.of(
+                "acl", "cors", "encryption", "legal-hold", "lifecycle", "logging", "notification", "object-lock",
+                "policy", "replication", "restore", "retention", "tagging", "torrent", "versions", "website"
+        );
+
+        static S3Request parse(HttpExchange http) {
+            String path = http.getRequestURI().getRawPath();
+            String bucket = null;
+            String key = null;
+            if (path.length() > 1) {
+                int slash = path.indexOf('/', 1);
+                bucket = decodeUtf8(percentDecode(slash == -1 ? path.substring(1) : path.substring(1, slash)));
+                if (slash != -1 && slash + 1 < path.length()) {
+                    byte[] keyBytes = percentDecode(path.substring(slash + 1));
+                    if (keyBytes.length > MAX_KEY_BYTES) {
+                        throw new S3ServerException(S3Error.KeyTooLongError, "Your key is too long");
+                    }
+                    key = decodeUtf8(keyBytes);
+                    if (key.indexOf('\0') != -1) {
+                        throw new S3ServerException(S3Error.InvalidArgument, "Object key contains a null character");
+                    }
+                }
+            }
+
+            Map<String, String> query = new HashMap<>();
+            String rawQuery = http.getRequestURI().getRawQuery();
+            if (rawQuery != null && !rawQuery.isEmpty()) {
+                for (String parameter : rawQuery.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    try {
+                        String name = URLDecoder.decode(equals == -1 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+                        String value = equals == -1 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+                        query.put(name, value);
+                    } catch (IllegalArgumentException e) {
+                        throw new S3ServerException(S3Error.InvalidArgument, "Invalid query parameter: " + parameter);
+                    }
+                }
+            }
+
+            return new S3Request(http, http.getRequestMethod(), bucket, key, query);
+        }
+
+        static boolean isSubresource(String parameter) {
+            return SUBRESOURCES.contains(parameter);
+        }
+
+        Headers headers() {
+            return http.getRequestHeaders();
+        }
+
+        boolean has(String parameter) {
+            return query.containsKey(parameter);
+        }
+
+        int intParameter(String name, int defaultValue) {
+            String value = query.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new S3ServerException(S3Error.InvalidArgument, "Invalid " + name + ": " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.s3.HttpExchange;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server that answers S3 requests from a recording made with {@link #RECORDING_FILE} exchange logs.
+ * <p>
+ * Recordings are kept per test in {@code <dir>/<TestClass>/<testMethod>/exchanges.jsonl}; {@link #load(Description)}
+ * selects the recording of the test that is about to run. Requests are matched on method, path and query string with
+ * the bucket name removed, so a replay can use different bucket names than the recording. Exchanges with the same
+ * request are answered in recorded order. A request without a matching unused exchange is answered with
+ * {@code 501 Not Implemented} naming the request key, so a replay never serves the response to a different request.
+ */
+public class ReplayServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayServer.class);
+
+    public static final String RECORDING_FILE = "exchanges.jsonl";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Headers that are generated by the JDK HTTP server itself
+    private static final Set<String> SKIPPED_HEADERS = Set.of("content-length", "transfer-encoding", "connection", "keep-alive", "date");
+
+    private final Path recordingPath;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile Recording recording = new Recording(List.of());
+
+    public ReplayServer(Path recordingPath) throws IOException {
+        this.recordingPath = recordingPath;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * An endpoint URI for this server that can be passed to {@code ServiceDefinition.fromURI}.
+     */
+    public String endpoint() {
+        return "http://replay:replay@" + server.getAddress().getAddress().getHostAddress() + ":" + port();
+    }
+
+    /**
+     * Selects the recording of the given test. Tests without a recording get an empty one, which answers every
+     * request with {@code 501 Not Implemented}.
+     */
+    public void load(Description test) throws IOException {
+        Path file = recordingPath.resolve(test.getTestClass().getSimpleName())
+                .resolve(test.getMethodName())
+                .resolve(RECORDING_FILE);
+
+        List<HttpExchange> exchanges = new ArrayList<>();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                HttpExchange exchange = MAPPER.readValue(line, HttpExchange.class);
+                // Attempts that never got a response can't be replayed
+                if (exchange.status() > 0) {
+                    exchanges.add(exchange);
+                }
+            }
+        } else {
+            LOG.warn("No recording for {}", test);
+        }
+        recording = new Recording(exchanges);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(com.sun.net.httpserver.HttpExchange http) throws IOException {
+        try {
+            URI uri = http.getRequestURI();
+            String path = uri.getRawPath();
+            String bucket = null;
+            if (path.length() > 1) {
+                int end = path.indexOf('/', 1);
+                bucket = end == -1 ? path.substring(1) : path.substring(1, end);
+                path = end == -1 ? "/" : path.substring(end);
+            }
+
+            String key = requestKey(http.getRequestMethod(), path, uri.getRawQuery());
+            HttpExchange exchange = recording.take(key);
+            if (exchange == null) {
+                LOG.warn("No recorded exchange for {}", key);
+                HttpResponses.sendError(http, 501, "NotImplemented", "No recorded exchange for " + key);
+                return;
+            }
+
+            respond(http, exchange, bucket);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not replay {} {}", http.getRequestMethod(), http.getRequestURI(), e);
+            throw e;
+        }
+    }
+
+    private static void respond(com.sun.net.httpserver.HttpExchange http, HttpExchange exchange, @Nullable String bucket) throws IOException {
+        Headers headers = http.getResponseHeaders();
+        Map<String, List<String>> recordedHeaders = exchange.responseHeaders() == null ? Map.of() : exchange.responseHeaders();
+        String contentType = null;
+        String contentLength = null;
+        for (Map.Entry<String, List<String>> header : recordedHeaders.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (name.equals("content-type") && !header.getValue().isEmpty()) {
+                contentType = header.getValue().get(0);
+            }
+            if (name.equals("content-length") && !header.getValue().isEmpty()) {
+                contentLength = header.getValue().get(0);
+            }
+            if (SKIPPED_HEADERS.contains(name)) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                headers.add(header.getKey(), substituteBucket(value, exchange.bucket(), bucket));
+            }
+        }
+
+        byte[] body = decode(exchange.responseBody());
+        if (contentType != null && contentType.contains("xml")) {
+            body = substituteBucket(new String(body, StandardCharsets.UTF_8), exchange.bucket(), bucket).getBytes(StandardCharsets.UTF_8);
+        }
+
+        if (http.getRequestMethod().equals("HEAD") && contentLength != null) {
+            headers.set("Content-Length", contentLength);
+        }
+
+        HttpResponses.send(http, exchange.status(), body);
+    }
+
+    private static byte[] decode(@Nullable HttpExchange.Body body) {
+        if (body == null) {
+            return new byte[0];
+        } else if (body.text() != null) {
+            return body.text().getBytes(StandardCharsets.UTF_8);
+        } else if (body.base64() != null) {
+            return Base64.getDecoder().decode(body.base64());
+        } else {
+            return new byte[0];
+        }
+    }
+
+    private static String substituteBucket(String value, @Nullable String recordedBucket, @Nullable String bucket) {
+        if (recordedBucket == null || bucket == null || recordedBucket.equals(bucket)) {
+            return value;
+        }
+        return value.replace(recordedBucket, bucket);
+    }
+
+    /**
+     * Key on which requests are matched: the method, the path without the bucket and the sorted query parameters.
+     */
+    private static String requestKey(String method, String path, @Nullable String query) {
+        if (path.isEmpty()) {
+            path = "/";
+        }
+
+        StringBuilder key = new StringBuilder(method).append(' ').append(path);
+        if (query != null && !query.isEmpty()) {
+            String[] params = query.split("&");
+            Arrays.sort(params);
+            key.append('?').append(String.join("&", params));
+        }
+        return key.toString();
+    }
+
+    private static String recordedKey(HttpExchange exchange) {
+        URI uri = URI.create(exchange.uri());
+        String path = uri.getRawPath();
+        String bucket = exchange.bucket();
+        if (bucket != null && path.startsWith("/" + bucket)) {
+            // Path style request; virtual hosted requests carry the bucket in the host name
+            String rest = path.substring(bucket.length() + 1);
+            if (rest.isEmpty() || rest.startsWith("/")) {
+                path = rest;
+            }
+        }
+        return requestKey(exchange.method(), path, uri.getRawQuery());
+    }
+
+    private static class Recording {
+        private final List<Entry> entries;
+
+        private Recording(List<HttpExchange> exchanges) {
+            this.entries = new ArrayList<>(exchanges.size());
+            for (HttpExchange exchange : exchanges) {
+                entries.add(new Entry(recordedKey(exchange), exchange));
+            }
+        }
+
+        private synchronized @Nullable HttpExchange take(String key) {
+            Iterator<Entry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.key().equals(key)) {
+                    iterator.remove();
+                    return entry.exchange();
+                }
+            }
+            return null;
+        }
+    }
+
+    private record Entry(String key, HttpExchange exchange) {
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.s3.S3Error;
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A request body with the {@code aws-chunked} content encoding removed.
+ *
+ * @param trailers trailing headers sent after the last chunk, with lower case names
+ */
+record RequestPayload(byte[] data, Map<String, String> trailers) {
+    static RequestPayload decode(Headers headers, byte[] body) {
+        String contentSha256 = headers.getFirst("x-amz-content-sha256");
+        String contentEncoding = headers.getFirst("Content-Encoding");
+        boolean chunked = (contentSha256 != null && contentSha256.startsWith("STREAMING-"))
+                || (contentEncoding != null && contentEncoding.contains("aws-chunked"));
+        if (!chunked) {
+            return new RequestPayload(body, Map.of());
+        }
+
+        // <hex-size>[;chunk-signature=<sig>]\r\n<data>\r\n ... 0[;chunk-signature=<sig>]\r\n[<trailer>\r\n...]\r\n
+        ByteArrayOutputStream data = new ByteArrayOutputStream(body.length);
+        int pos = 0;
+        while (true) {
+            int lineEnd = indexOfCrLf(body, pos);
+            String line = new String(body, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            int semicolon = line.indexOf(';');
+            long size;
+            try {
+                size = Long.parseLong(semicolon == -1 ? line.trim() : line.substring(0, semicolon).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new S3ServerException(S3Error.IncompleteBody, "Invalid chunk header: " + line);
+            }
+            if (size < 0) {
+                throw new S3ServerException(S3Error.IncompleteBody, "Invalid chunk header: " + line);
+            }
+            pos = lineEnd + 2;
+            if (size == 0) {
+                break;
+            }
+            if (size > body.length - pos) {
+                throw new S3ServerException(S3Error.IncompleteBody, "Chunk exceeds request body");
+            }
+            data.write(body, pos, (int) size);
+            pos += (int) size + 2;
+        }
+
+        Map<String, String> trailers = new HashMap<>();
+        while (pos < body.length) {
+            int lineEnd = indexOfCrLf(body, pos);
+            String line = new String(body, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            pos = lineEnd + 2;
+            if (line.isEmpty()) {
+                break;
+            }
+            int colon = line.indexOf(':');
+            if (colon != -1) {
+                trailers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+
+        String decodedLength = headers.getFirst("x-amz-decoded-content-length");
+        if (decodedLength != null && Long.parseLong(decodedLength) != data.size()) {
+            throw new S3ServerException(S3Error.IncompleteBody, "Expected " + decodedLength + " bytes, received " + data.size());
+        }
+
+        return new RequestPayload(data.toByteArray(), trailers);
+    }
+
+    private static int indexOfCrLf(byte[] body, int from) {
+        for (int i = from; i + 1 < body.length; i++) {
+            if (body[i] == '\r' && body[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return body.length;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.s3.S3Error;
+
+/**
+ * Aborts request handling with an S3 error response.
+ */
+class S3ServerException extends RuntimeException {
+    private final S3Error error;
+
+    S3ServerException(S3Error error, String message) {
+        super(message);
+        this.error = error;
+    }
+
+    S3Error error() {
+        return error;
+    }
+}
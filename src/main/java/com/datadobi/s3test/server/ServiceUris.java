@@ -0,0 +1,58 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import com.datadobi.s3test.s3.ServiceDefinition;
+
+import java.io.IOException;
+
+/**
+ * Resolves the service URIs accepted by the command line tools, including {@code inmem} URIs for the shared
+ * {@link InMemoryS3Server}. This lives next to the servers so that {@link ServiceDefinition} does not depend on them.
+ */
+public final class ServiceUris {
+    private static final String IN_MEMORY_SCHEME = "inmem:";
+
+    private ServiceUris() {
+    }
+
+    /**
+     * Like {@link ServiceDefinition#fromURI(String)}, but also accepts {@code inmem://}, {@code inmem:///<bucket>} and
+     * {@code inmem://<bucket>}.
+     */
+    public static ServiceDefinition fromURI(String uri) throws IOException {
+        if (!uri.regionMatches(true, 0, IN_MEMORY_SCHEME, 0, IN_MEMORY_SCHEME.length())) {
+            return ServiceDefinition.fromURI(uri);
+        }
+
+        // Parsed by hand since java.net.URI would take the bucket of inmem://<bucket> as the host
+        String bucket = uri.substring(IN_MEMORY_SCHEME.length());
+        while (bucket.startsWith("/")) {
+            bucket = bucket.substring(1);
+        }
+        while (bucket.endsWith("/")) {
+            bucket = bucket.substring(0, bucket.length() - 1);
+        }
+        if (bucket.contains("/")) {
+            throw new IllegalArgumentException("Invalid in-memory service URI " + uri + ", expected inmem:///<bucket>");
+        }
+
+        return InMemoryS3Server.shared().serviceDefinition(bucket.isEmpty() ? null : bucket);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An object stored by {@link InMemoryS3Server}.
+ *
+ * @param checksums additional checksums by algorithm name as used in the {@code x-amz-checksum-*} headers
+ * @param partSizes sizes of the parts of a multipart upload, empty for objects written in a single request
+ */
+record StoredObject(
+        byte[] data,
+        String eTag,
+        Instant lastModified,
+        String contentType,
+        @Nullable String contentEncoding,
+        Map<String, String> metadata,
+        Map<String, String> checksums,
+        List<Long> partSizes
+) {
+}
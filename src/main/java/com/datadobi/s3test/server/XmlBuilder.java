@@ -0,0 +1,62 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.server;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal writer for S3 response documents.
+ */
+class XmlBuilder {
+    static final String S3_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+    private final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+
+    XmlBuilder(String rootElement) {
+        xml.append('<').append(rootElement).append(" xmlns=\"").append(S3_NAMESPACE).append("\">");
+    }
+
+    XmlBuilder start(String name) {
+        xml.append('<').append(name).append('>');
+        return this;
+    }
+
+    XmlBuilder end(String name) {
+        xml.append("</").append(name).append('>');
+        return this;
+    }
+
+    /**
+     * Appends a text element; {@code null} values are omitted.
+     */
+    XmlBuilder element(String name, @Nullable Object value) {
+        if (value != null) {
+            start(name);
+            xml.append(HttpResponses.escapeXml(value.toString()));
+            end(name);
+        }
+        return this;
+    }
+
+    byte[] build(String rootElement) {
+        end(rootElement);
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
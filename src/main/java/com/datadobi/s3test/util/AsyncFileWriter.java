@@ -0,0 +1,161 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes lines of text to a file on a dedicated background thread.
+ * <p>
+ * Callers only pay for a queue insertion; formatting and I/O happen on the writer thread. No line is ever dropped:
+ * if the writer thread cannot keep up and the queue is full, callers wait for room in the queue.
+ */
+public class AsyncFileWriter implements AutoCloseable {
+    private static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+    private static final int DRAIN_BATCH_SIZE = 1024;
+    private static final String END_OF_STREAM = new String("<end of stream>");
+
+    private final BlockingQueue<String> queue;
+    private final Writer out;
+    private final UnaryOperator<String> filter;
+    private final Thread thread;
+    private volatile boolean closed;
+    /** Either an {@link IOException} or a {@link RuntimeException} thrown by the filter; rethrown by close. */
+    private volatile Exception failure;
+
+    public AsyncFileWriter(Path file, boolean compress) throws IOException {
+        this(file, compress, UnaryOperator.identity());
+    }
+
+    public AsyncFileWriter(Path file, boolean compress, UnaryOperator<String> filter) throws IOException {
+        this(file, compress, DEFAULT_QUEUE_CAPACITY, filter);
+    }
+
+    /**
+     * @param filter applied to each line on the writer thread; returns the text to write, or {@code null} to skip
+     *               the line
+     */
+    public AsyncFileWriter(Path file, boolean compress, int queueCapacity, UnaryOperator<String> filter) throws IOException {
+        OutputStream stream = Files.newOutputStream(file);
+        if (compress) {
+            stream = new GZIPOutputStream(stream, 64 * 1024);
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.filter = filter;
+        this.thread = new Thread(this::run, "async-writer-" + file.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a line for writing, waiting for room if the queue is full. A line separator is appended by the writer
+     * thread. Lines written after {@link #close()} are ignored.
+     */
+    public void writeLine(String line) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            // Give up only if the writer thread has failed, the failure is reported by close
+            while (!queue.offer(line, 100, TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<String> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        try {
+            while (true) {
+                String line = queue.poll(1, TimeUnit.SECONDS);
+                if (line == null) {
+                    out.flush();
+                    continue;
+                }
+
+                batch.add(line);
+                queue.drainTo(batch, DRAIN_BATCH_SIZE - 1);
+                for (String l : batch) {
+                    if (l == END_OF_STREAM) {
+                        return;
+                    }
+                    String text = filter.apply(l);
+                    if (text != null) {
+                        out.write(text);
+                        out.write('\n');
+                    }
+                }
+                batch.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for all queued lines to be written and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            while (thread.isAlive() && !queue.offer(END_OF_STREAM, 100, TimeUnit.MILLISECONDS)) {
+                // writer thread is still draining a full queue
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        out.close();
+
+        if (failure instanceof IOException e) {
+            throw e;
+        }
+        if (failure instanceof RuntimeException e) {
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A set of keys stored as UTF-8 in large {@code byte[]} slabs, for comparing millions of expected keys with a listing.
+ * <p>
+ * Each key costs its encoded length plus 10 bytes, compared to roughly 100 bytes for a short {@link String} in a
+ * {@link java.util.HashSet}. Keys are added in any order; {@link #diff(Stream)} sorts them once in UTF-8 binary order
+ * and then merges them with the listing.
+ */
+public class CompactKeySet {
+    private static final int SLAB_BITS = 20;
+    private static final int SLAB_SIZE = 1 << SLAB_BITS;
+    private static final int MAX_KEY_BYTES = 0xFFFF;
+    private static final int MAX_SAMPLES = 10;
+
+    /**
+     * Result of comparing the set with a listing.
+     *
+     * @param expected   number of keys in the set
+     * @param listed     number of keys in the listing
+     * @param missing    keys in the set that were not listed
+     * @param extra      listed keys that are not in the set
+     * @param misordered listed keys that were not greater than their predecessor in UTF-8 binary order
+     */
+    public record Diff(
+            long expected,
+            long listed,
+            long missing,
+            long extra,
+            long misordered,
+            List<String> missingSamples,
+            List<String> extraSamples,
+            List<String> misorderedSamples
+    ) {
+        public boolean isEmpty() {
+            return missing == 0 && extra == 0 && misordered == 0;
+        }
+
+        public String summary() {
+            if (isEmpty()) {
+                return listed + " keys listed as expected";
+            }
+            return String.format("%d expected, %d listed: %d missing %s, %d extra %s, %d misordered %s",
+                    expected, listed, missing, missingSamples, extra, extraSamples, misordered, misorderedSamples);
+        }
+    }
+
+    private final List<byte[]> slabs = new ArrayList<>();
+    private long used;
+    private long[] positions = new long[1024];
+    private int size;
+    private boolean sorted = true;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer encoded = ByteBuffer.allocate(1024);
+
+    public int size() {
+        return size;
+    }
+
+    public void add(String key) {
+        ByteBuffer bytes = encode(key);
+        int length = bytes.remaining();
+        if (length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key too long: " + length + " bytes");
+        }
+
+        int offset = offset(used);
+        if ((used >>> SLAB_BITS) >= slabs.size() || offset + 2 + length > SLAB_SIZE) {
+            // Keys never span slabs; the remainder of the current slab is left unused
+            slabs.add(new byte[SLAB_SIZE]);
+            used = (long) (slabs.size() - 1) << SLAB_BITS;
+            offset = 0;
+        }
+
+        byte[] slab = slabs.get(slabs.size() - 1);
+        slab[offset] = (byte) (length >>> 8);
+        slab[offset + 1] = (byte) length;
+        bytes.get(slab, offset + 2, length);
+
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(1024, size + (size >> 1)));
+        }
+        if (sorted && size > 0 && compare(positions[size - 1], used) >= 0) {
+            sorted = false;
+        }
+        positions[size++] = used;
+        used += 2 + length;
+    }
+
+    public boolean contains(String key) {
+        sort();
+        ByteBuffer bytes = encode(key);
+        return indexOf(bytes.array(), bytes.remaining()) >= 0;
+    }
+
+    /**
+     * Compares the set with a listing that should contain exactly these keys in UTF-8 binary order.
+     */
+    public Diff diff(Stream<String> listing) {
+        sort();
+        Merge merge = new Merge();
+        listing.forEachOrdered(merge::accept);
+        return merge.result();
+    }
+
+    private class Merge {
+        private final BitSet found = new BitSet(size);
+        private byte[] previous = new byte[1024];
+        private int previousLength = -1;
+        private int cursor;
+        private long listed;
+        private long extra;
+        private long misordered;
+        private final List<String> extraSamples = new ArrayList<>();
+        private final List<String> misorderedSamples = new ArrayList<>();
+
+        private void accept(String key) {
+            listed++;
+            ByteBuffer bytes = encode(key);
+            byte[] array = bytes.array();
+            int length = bytes.remaining();
+
+            int index;
+            if (previousLength >= 0 && Arrays.compareUnsigned(previous, 0, previousLength, array, 0, length) >= 0) {
+                misordered++;
+                sample(misorderedSamples, key);
+                // The merge cursor may already have moved past this key
+                index = indexOf(array, length);
+            } else {
+                cursor = lowerBound(cursor, array, length);
+                index = cursor < size && compare(positions[cursor], array, length) == 0 ? cursor : -1;
+            }
+
+            if (index >= 0) {
+                found.set(index);
+                // Continue the merge after this key, so one misplaced key does not derail the rest
+                cursor = index + 1;
+            } else {
+                extra++;
+                sample(extraSamples, key);
+            }
+
+            if (previous.length < length) {
+                previous = new byte[Math.max(length, previous.length * 2)];
+            }
+            System.arraycopy(array, 0, previous, 0, length);
+            previousLength = length;
+        }
+
+        private Diff result() {
+            long missing = size - found.cardinality();
+            List<String> missingSamples = new ArrayList<>();
+            for (int i = found.nextClearBit(0); i < size && missingSamples.size() < MAX_SAMPLES; i = found.nextClearBit(i + 1)) {
+                missingSamples.add(key(i));
+            }
+            return new Diff(size, listed, missing, extra, misordered, missingSamples, extraSamples, misorderedSamples);
+        }
+
+        private void sample(List<String> samples, String key) {
+            if (samples.size() < MAX_SAMPLES) {
+                samples.add(key);
+            }
+        }
+    }
+
+    /**
+     * Sorts the keys in UTF-8 binary order and drops duplicates.
+     */
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+
+        // Bottom-up merge sort; the JDK has no primitive sort with a custom comparator
+        long[] source = positions;
+        long[] target = new long[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int mid = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    target[k] = j >= high || (i < mid && compare(source[i], source[j]) <= 0) ? source[i++] : source[j++];
+                }
+            }
+            long[] swap = source;
+            source = target;
+            target = swap;
+        }
+
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || compare(source[unique - 1], source[i]) != 0) {
+                source[unique++] = source[i];
+            }
+        }
+        positions = source;
+        size = unique;
+        sorted = true;
+    }
+
+    /**
+     * Index of the first key at or after {@code from} that is not less than {@code key}. Checks the next few keys
+     * directly, since in a matching listing the key is almost always at {@code from}.
+     */
+    private int lowerBound(int from, byte[] key, int length) {
+        int low = from;
+        for (int limit = Math.min(size, from + 8); low < limit; low++) {
+            if (compare(positions[low], key, length) >= 0) {
+                return low;
+            }
+        }
+
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(positions[mid], key, length) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(byte[] key, int length) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(positions[mid], key, length);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String key(int index) {
+        long position = positions[index];
+        byte[] slab = slab(position);
+        int offset = offset(position);
+        return new String(slab, offset + 2, length(slab, offset), StandardCharsets.UTF_8);
+    }
+
+    private int compare(long a, long b) {
+        byte[] slabA = slab(a);
+        byte[] slabB = slab(b);
+        int offsetA = offset(a);
+        int offsetB = offset(b);
+        return Arrays.compareUnsigned(
+                slabA, offsetA + 2, offsetA + 2 + length(slabA, offsetA),
+                slabB, offsetB + 2, offsetB + 2 + length(slabB, offsetB)
+        );
+    }
+
+    private int compare(long position, byte[] key, int length) {
+        byte[] slab = slab(position);
+        int offset = offset(position);
+        return Arrays.compareUnsigned(slab, offset + 2, offset + 2 + length(slab, offset), key, 0, length);
+    }
+
+    private byte[] slab(long position) {
+        return slabs.get((int) (position >>> SLAB_BITS));
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (SLAB_SIZE - 1));
+    }
+
+    private static int length(byte[] slab, int offset) {
+        return ((slab[offset] & 0xFF) << 8) | (slab[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Encodes into a reused buffer; the result is only valid until the next call.
+     */
+    private ByteBuffer encode(String key) {
+        encoder.reset();
+        encoded.clear();
+        CharBuffer chars = CharBuffer.wrap(key);
+        while (true) {
+            CoderResult result = encoder.encode(chars, encoded, true);
+            if (result.isOverflow()) {
+                ByteBuffer larger = ByteBuffer.allocate(encoded.capacity() * 2);
+                encoded.flip();
+                larger.put(encoded);
+                encoded = larger;
+            } else {
+                encoder.flush(encoded);
+                break;
+            }
+        }
+        encoded.flip();
+        return encoded;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes raw object key bytes for use in a request URI, without any validation of the bytes.
+ */
+public final class KeyEncoding {
+    private KeyEncoding() {
+    }
+
+    /**
+     * Percent-encodes the concatenation of the given byte sequences. Bytes that are not printable ASCII are always
+     * escaped, so invalid UTF-8 sequences reach the server unchanged.
+     */
+    public static String urlEncode(byte[]... chunks) {
+        var b = new StringBuilder();
+        for (var chunk : chunks) {
+            for (var b1 : chunk) {
+                //for ASCII chars, use the regular percent-encoding
+                if (/*b1 < 128 &&*/ b1 > 32) {
+                    //^^ bytes are signed in Java, so always < 128...
+                    b.append(URLEncoder.encode("" + (char) b1, StandardCharsets.US_ASCII));
+                } else {
+                    //for all other characters, explicitly control the percent-escaping to encode the binary code point
+                    b.append(String.format("%%%02X", b1));
+                }
+            }
+        }
+        return b.toString();
+    }
+
+    /**
+     * Reverses the {@code encoding-type=url} encoding of keys in listings, returning the raw key bytes.
+     */
+    public static byte[] urlDecode(String encoded) {
+        var out = new ByteArrayOutputStream(encoded.length());
+        for (var i = 0; i < encoded.length(); i++) {
+            var c = encoded.charAt(i);
+            if (c == '%' && i + 2 < encoded.length()) {
+                out.write(Integer.parseInt(encoded, i + 1, i + 3, 16));
+                i += 2;
+            } else if (c == '+') {
+                out.write(' ');
+            } else if (c < 0x80) {
+                out.write(c);
+            } else {
+                // Servers do not always escape non-ASCII characters
+                var codePoint = encoded.codePointAt(i);
+                out.writeBytes(new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8));
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return out.toByteArray();
+    }
+}
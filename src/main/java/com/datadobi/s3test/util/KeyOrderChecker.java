@@ -0,0 +1,101 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+
+/**
+ * Checks that a stream of keys is strictly increasing, e.g. the keys of a listing as they are received.
+ * <p>
+ * Only the previous key is retained and {@link Utf8Order} compares UTF-16 code units directly, so keys are never
+ * encoded and arbitrarily large listings can be checked in constant memory.
+ */
+public class KeyOrderChecker {
+    /**
+     * The first pair of keys that was out of order.
+     *
+     * @param index    position of {@code key} in the stream, starting at 0
+     * @param previous the key that precedes {@code key}
+     */
+    public record Violation(long index, String previous, String key) {
+        @Override
+        public String toString() {
+            return "key " + index + " '" + previous + "' >= '" + key + "'";
+        }
+    }
+
+    private final Comparator<String> order;
+    private @Nullable String previous;
+    private long count;
+    private long violations;
+    private @Nullable Violation firstViolation;
+
+    public KeyOrderChecker(Comparator<String> order) {
+        this.order = order;
+    }
+
+    /**
+     * Checks keys in UTF-8 binary order, the order in which S3 lists keys.
+     */
+    public static KeyOrderChecker utf8() {
+        return new KeyOrderChecker(Utf8Order.COMPARATOR);
+    }
+
+    /**
+     * Checks keys in UTF-16 binary order, see {@code KEYS_ARE_SORTED_IN_UTF16_BINARY_ORDER}.
+     */
+    public static KeyOrderChecker utf16() {
+        return new KeyOrderChecker(Comparator.naturalOrder());
+    }
+
+    public void accept(String key) {
+        if (previous != null && order.compare(previous, key) >= 0) {
+            violations++;
+            if (firstViolation == null) {
+                firstViolation = new Violation(count, previous, key);
+            }
+        }
+        previous = key;
+        count++;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long violations() {
+        return violations;
+    }
+
+    public @Nullable Violation firstViolation() {
+        return firstViolation;
+    }
+
+    public boolean isOrdered() {
+        return violations == 0;
+    }
+
+    public String summary() {
+        if (firstViolation == null) {
+            return count + " keys in order";
+        }
+        return String.format("%d of %d keys out of order, first at %s", violations, count, firstViolation);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects latency samples from concurrent threads and reports their distribution.
+ */
+public class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count;
+
+    public synchronized void record(Duration latency) {
+        recordNanos(latency.toNanos());
+    }
+
+    public synchronized void recordNanos(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Number of samples that are less than or equal to {@code nanos}.
+     */
+    public synchronized int countAtMost(long nanos) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (samples[i] <= nanos) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The sample below which the given fraction of samples fall (nearest rank), or zero if nothing was recorded.
+     *
+     * @param percentile between 0 and 100
+     */
+    public synchronized Duration percentile(double percentile) {
+        if (count == 0) {
+            return Duration.ZERO;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return Duration.ofNanos(sorted[Math.min(count - 1, Math.max(0, rank - 1))]);
+    }
+
+    public Duration max() {
+        return percentile(100);
+    }
+
+    public synchronized Duration mean() {
+        if (count == 0) {
+            return Duration.ZERO;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += samples[i];
+        }
+        return Duration.ofNanos(sum / count);
+    }
+
+    /**
+     * A one line summary: count, mean and the 50th, 90th, 99th percentile and maximum in milliseconds.
+     */
+    public String summary() {
+        return summary(count(), millis(mean()), millis(percentile(50)), millis(percentile(90)), millis(percentile(99)), millis(max()));
+    }
+
+    /**
+     * Formats a distribution given in milliseconds like {@link #summary()}, e.g. one that was stored in a results file.
+     */
+    public static String summary(int count, double meanMs, double p50Ms, double p90Ms, double p99Ms, double maxMs) {
+        return String.format(Locale.ROOT, "n=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms", count, meanMs, p50Ms, p90Ms, p99Ms, maxMs);
+    }
+
+    public static double millis(Duration duration) {
+        return duration.toNanos() / 1e6;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Repeats a probe until its result satisfies a condition, backing off exponentially between attempts.
+ * <p>
+ * The first attempt is made immediately, so strongly consistent servers pass without any delay. Subsequent delays
+ * start at {@link #INITIAL_DELAY}, double up to {@link #MAX_DELAY}, and are randomized to avoid synchronized retries.
+ */
+public final class Poller {
+    public static final Duration INITIAL_DELAY = Duration.ofMillis(10);
+    public static final Duration MAX_DELAY = Duration.ofSeconds(1);
+
+    private Poller() {
+    }
+
+    /**
+     * @param description what is being waited for, used in the timeout message
+     * @param timeout     how long to keep polling; the probe is always attempted at least once
+     * @param probe       performs a single check; may return {@code null}
+     * @param condition   decides whether the probe's result is the awaited state
+     * @return the first probe result that satisfies {@code condition}
+     * @throws TimeoutException if the condition is not met before the timeout
+     */
+    public static <T> T await(String description, Duration timeout, Supplier<T> probe, Predicate<? super T> condition) throws TimeoutException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long delay = INITIAL_DELAY.toNanos();
+        int attempts = 0;
+        @Nullable T last;
+
+        while (true) {
+            last = probe.get();
+            attempts++;
+            if (condition.test(last)) {
+                return last;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            // Equal jitter: at least half the nominal delay, never past the deadline
+            long sleep = Math.min(remaining, delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+            delay = Math.min(delay * 2, MAX_DELAY.toNanos());
+        }
+
+        throw new TimeoutException(String.format("Timed out after %s and %d attempts waiting for %s (last result: %s)", timeout, attempts, description, last));
+    }
+}
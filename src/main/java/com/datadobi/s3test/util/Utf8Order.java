@@ -0,0 +1,53 @@
+/*
+ *
+ *  Copyright Datadobi
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.datadobi.s3test.util;
+
+import java.util.Comparator;
+
+/**
+ * Orders strings by their UTF-8 encoding, which is the order in which S3 lists keys.
+ * <p>
+ * UTF-8 byte order is the same as code point order. It differs from {@link String#compareTo(String)}, which compares
+ * UTF-16 code units, for code points above U+FFFF: their surrogates sort before U+E000..U+FFFF in UTF-16 but after
+ * them in UTF-8.
+ */
+public final class Utf8Order {
+    public static final Comparator<String> COMPARATOR = Utf8Order::compare;
+
+    private Utf8Order() {
+    }
+
+    public static int compare(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                // Surrogates encode code points above all BMP characters
+                boolean sa = Character.isSurrogate(ca);
+                boolean sb = Character.isSurrogate(cb);
+                if (sa != sb) {
+                    return sa ? 1 : -1;
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+}